@@ -0,0 +1,56 @@
+package wget.bench;
+
+import java.util.Random;
+
+// Deterministic synthetic inputs shaped like the pages and bodies wget sees in practice
+public class Fixtures {
+    public static final String BASE_URL = "http://example.com/docs/";
+
+    public static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    // A documentation-style page: navigation, long text, and many links and images
+    public static String largeHtmlPage(int links) {
+        StringBuilder html = new StringBuilder(links * 160);
+        html.append("<!DOCTYPE html><html><head><title>Fixture</title>");
+        html.append("<link rel=\"stylesheet\" href=\"/static/site.css\">");
+        html.append("<script src=\"/static/app.js\"></script></head><body><nav><ul>");
+        for (int i = 0; i < links; i++) {
+            html.append("<li><a href=\"").append(pagePath(i)).append("\">Page ").append(i).append("</a></li>");
+            if (i % 4 == 0) {
+                html.append("<img src=\"../images/figure-").append(i).append(".png\" alt=\"figure\">");
+            }
+            if (i % 10 == 0) {
+                html.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor ")
+                        .append("incididunt ut labore et dolore magna aliqua. <a href=\"#section-").append(i)
+                        .append("\">anchor</a></p>");
+            }
+        }
+        html.append("</ul></nav></body></html>");
+        return html.toString();
+    }
+
+    // A page whose links mostly live in <style> blocks and inline style attributes
+    public static String cssHeavyPage(int rules) {
+        StringBuilder html = new StringBuilder(rules * 120);
+        html.append("<!DOCTYPE html><html><head><style>");
+        for (int i = 0; i < rules; i++) {
+            html.append(".icon-").append(i).append(" { background: url('../images/icon-").append(i)
+                    .append(".svg') no-repeat; }\n");
+        }
+        html.append("</style></head><body>");
+        for (int i = 0; i < rules; i += 5) {
+            html.append("<div class=\"icon-").append(i).append("\" style=\"background-image: url(/images/bg-")
+                    .append(i).append(".jpg)\">").append(i).append("</div>");
+        }
+        html.append("</body></html>");
+        return html.toString();
+    }
+
+    public static String pagePath(int i) {
+        return "/docs/section-" + (i % 50) + "/page-" + i + ".html";
+    }
+}
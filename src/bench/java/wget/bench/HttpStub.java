@@ -0,0 +1,80 @@
+package wget.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// In-process HTTP server so benchmarks measure our code rather than a remote network
+public class HttpStub implements AutoCloseable {
+    // Room for thousands of simultaneous connects; the default of 50 drops SYNs into 1 s retransmits
+    private static final int BACKLOG = 16384;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, byte[]> bodies = new ConcurrentHashMap<>();
+    // Responses are delayed on a timer rather than a sleeping thread, so thousands can be pending
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(2);
+    private volatile long latencyMillis;
+
+    public HttpStub() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), BACKLOG);
+        this.executor = Executors.newCachedThreadPool();
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public String serve(String path, byte[] body) {
+        bodies.put(path, body);
+        return url(path);
+    }
+
+    // Simulated server think time before each response
+    public void setLatency(long millis) {
+        this.latencyMillis = millis;
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = bodies.get(exchange.getRequestURI().getPath());
+        if (body == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        if (latencyMillis > 0) {
+            timer.schedule(() -> respond(exchange, body), latencyMillis, TimeUnit.MILLISECONDS);
+        } else {
+            respond(exchange, body);
+        }
+    }
+
+    private static Void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,72 @@
+package wget.cli;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// What a transfer pays per chunk for progress: drawing the bar on every chunk, as the save loop
+// used to, against feeding the renderer's counter
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgressBenchmark {
+    private static final int CHUNK = 8192;
+
+    private PrintStream discard;
+    private PrintStream stdout;
+    private ProgressRenderer.Transfer transfer;
+    private long downloaded;
+    private long startNano;
+
+    @Setup
+    public void setUp() {
+        discard = new PrintStream(OutputStream.nullOutputStream());
+        // The renderer draws to System.out, which would otherwise land in the JMH log
+        stdout = System.out;
+        System.setOut(discard);
+        transfer = ProgressRenderer.singleLine().begin("body.bin", Long.MAX_VALUE, 0);
+        startNano = System.nanoTime();
+    }
+
+    @TearDown
+    public void tearDown() {
+        transfer.finish();
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void drawPerChunk() {
+        downloaded += CHUNK;
+        StringBuilder bar = new StringBuilder();
+        OutputFormatter.appendProgressBar(bar, downloaded, Long.MAX_VALUE, 50, startNano, 0);
+        discard.print(bar);
+    }
+
+    @Benchmark
+    public void counterPerChunk() {
+        transfer.add(CHUNK);
+    }
+
+    // The threads of a segmented download feeding one transfer
+    @Benchmark
+    @Threads(4)
+    public void counterPerChunkShared() {
+        transfer.add(CHUNK);
+    }
+}
@@ -0,0 +1,134 @@
+package wget.download;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wget.bench.HttpStub;
+import wget.cli.ArgumentParser;
+import wget.cli.OutputFormatter;
+import wget.utils.VirtualThreads;
+
+// 10k small downloads, thousands in flight at once, one thread each: platform threads against virtual
+// threads. The virtual case needs a Java 21+ JVM (JAVA_HOME=... mvn -Pbench verify).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xss1m")
+public class AsyncDownloaderBenchmark {
+    @Param({ "platform", "virtual" })
+    public String threads;
+
+    @Param({ "10000" })
+    public int files;
+
+    // Global bound on downloads in flight; each holds a client socket, a server socket and a file,
+    // so this has to stay under the open-file limit
+    @Param({ "4096" })
+    public int inFlight;
+
+    private HttpStub stub;
+    private String[] urls;
+    private Path directory;
+    private OutputFormatter formatter;
+    private PrintStream stdout;
+
+    // Per-iteration footprint: platform threads alive at the peak and peak heap occupancy
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long peakPlatformThreads;
+        public long peakHeapMb;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        if (threads.equals("virtual") && !VirtualThreads.isSupported()) {
+            throw new IllegalStateException(VirtualThreads.unsupportedReason());
+        }
+
+        stub = new HttpStub();
+        // Long enough that all downloads overlap, as with a slow or distant server
+        stub.setLatency(200);
+        byte[] body = new byte[2048];
+        urls = new String[files];
+        for (int i = 0; i < files; i++) {
+            urls[i] = stub.serve("/small-" + i + ".bin", body);
+        }
+        directory = Files.createTempDirectory("wget-bench");
+        formatter = new OutputFormatter(new ArgumentParser(new String[] { "-i", "list" }));
+
+        // Every download prints its start and end; keep that out of the JMH report
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeaks() {
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(stdout);
+        stub.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public void downloadAll(Footprint footprint) {
+        ExecutorService executor = threads.equals("virtual")
+                ? VirtualThreads.newPerTaskExecutor()
+                : Executors.newCachedThreadPool();
+        AsyncDownloader downloader = new AsyncDownloader(executor, inFlight, inFlight);
+        String path = directory + "/";
+        for (int i = 0; i < files; i++) {
+            downloader.downloadAsync(urls[i], "small-" + i + ".bin", path, "GET", formatter, null);
+        }
+        downloader.shutdownAndAwaitTermination();
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        footprint.peakPlatformThreads = threadBean.getPeakThreadCount();
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        footprint.peakHeapMb = peakHeap / (1024 * 1024);
+    }
+}
@@ -0,0 +1,104 @@
+package wget.download;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wget.bench.Fixtures;
+import wget.bench.HttpStub;
+import wget.utils.NetworkUtils;
+
+// FileManager.save with the disk written inline and behind the socket, and what a mirror's batch of
+// small files costs to make durable one fsync at a time and through DiskWriter's group commit.
+// DiskWriter is configured once per JVM, so each writeBehind value runs in its own fork.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiskWriterBenchmark {
+    private static final int SMALL_FILES = 64;
+    private static final int SMALL_FILE_SIZE = 16 * 1024;
+
+    @Param({ "false", "true" })
+    public boolean writeBehind;
+
+    @Param({ "4194304", "33554432" })
+    public int bodySize;
+
+    private HttpStub stub;
+    private String url;
+    private Path directory;
+    private final List<Path> smallFiles = new ArrayList<>();
+    private final ByteBuffer smallBody = ByteBuffer.wrap(Fixtures.randomBytes(SMALL_FILE_SIZE));
+
+    @Setup
+    public void setUp() throws IOException {
+        DiskWriter.configure(writeBehind, writeBehind);
+        stub = new HttpStub();
+        url = stub.serve("/body.bin", Fixtures.randomBytes(bodySize));
+        directory = Files.createTempDirectory("wget-bench");
+        for (int i = 0; i < SMALL_FILES; i++) {
+            smallFiles.add(directory.resolve("small" + i + ".bin"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        stub.close();
+        Files.deleteIfExists(directory.resolve("body.bin"));
+        for (Path file : smallFiles) {
+            Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        HttpURLConnection conn = NetworkUtils.createConnection(url, "GET");
+        if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Stub returned " + conn.getResponseCode());
+        }
+        new FileManager("body.bin", directory.toString()).save(conn, conn.getContentLengthLong(), true, false, null);
+    }
+
+    // Without --fsync DiskWriter.sync returns at once, so only the writeBehind=true fork syncs in
+    // batches; the other flushes each file as it is closed
+    @Benchmark
+    public void syncSmallFiles() throws IOException {
+        List<CompletableFuture<Void>> synced = new ArrayList<>(SMALL_FILES);
+        for (Path file : smallFiles) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(smallBody.duplicate());
+                if (!DiskWriter.fsync()) {
+                    channel.force(false);
+                }
+            }
+            synced.add(DiskWriter.sync(file));
+        }
+        CompletableFuture.allOf(synced.toArray(new CompletableFuture<?>[0])).join();
+    }
+}
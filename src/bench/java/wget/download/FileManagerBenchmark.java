@@ -0,0 +1,83 @@
+package wget.download;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wget.bench.Fixtures;
+import wget.bench.HttpStub;
+import wget.utils.NetworkUtils;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileManagerBenchmark {
+    @Param({ "65536", "4194304", "33554432" })
+    public int bodySize;
+
+    private HttpStub stub;
+    private String url;
+    private Path directory;
+
+    @Setup
+    public void setUp() throws IOException {
+        stub = new HttpStub();
+        url = stub.serve("/body.bin", Fixtures.randomBytes(bodySize));
+        directory = Files.createTempDirectory("wget-bench");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        stub.close();
+        Files.deleteIfExists(directory.resolve("body.bin"));
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        HttpURLConnection conn = open();
+        new FileManager("body.bin", directory.toString()).save(conn, conn.getContentLengthLong(), true, false, null);
+    }
+
+    // The stream copy loop FileManager.save used before the FileChannel write path, kept as a baseline
+    @Benchmark
+    public void legacyStreamLoop() throws IOException {
+        HttpURLConnection conn = open();
+        try (InputStream in = conn.getInputStream();
+                FileOutputStream out = new FileOutputStream(directory.resolve("body.bin").toFile())) {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+        }
+    }
+
+    private HttpURLConnection open() throws IOException {
+        HttpURLConnection conn = NetworkUtils.createConnection(url, "GET");
+        if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Stub returned " + conn.getResponseCode());
+        }
+        return conn;
+    }
+}
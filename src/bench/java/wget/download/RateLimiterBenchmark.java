@@ -0,0 +1,58 @@
+package wget.download;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Bookkeeping cost of throttle() with a limit high enough that it never has to wait
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+    private RateLimiter rateLimiter;
+    private HostRateLimits hostRateLimits;
+
+    @Setup
+    public void setUp() {
+        rateLimiter = new RateLimiter("1000000m");
+        hostRateLimits = new HostRateLimits("1000000m", "1000000m");
+    }
+
+    @Benchmark
+    public void throttleChunk() throws InterruptedException {
+        rateLimiter.throttle(8192);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void throttleChunkShared() throws InterruptedException {
+        rateLimiter.throttle(8192);
+    }
+
+    // Many downloads contending for the one global bucket
+    @Benchmark
+    @Threads(16)
+    public void throttleChunkContended() throws InterruptedException {
+        rateLimiter.throttle(8192);
+    }
+
+    // Per-host bucket chained to the global one, as with --host-rate-limit
+    @Benchmark
+    @Threads(16)
+    public void throttleHostChained() throws InterruptedException {
+        hostRateLimits.forUrl("http://example.com/file").throttle(8192);
+    }
+}
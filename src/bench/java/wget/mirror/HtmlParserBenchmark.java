@@ -0,0 +1,73 @@
+package wget.mirror;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wget.bench.Fixtures;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HtmlParserBenchmark {
+    private byte[] largePageBytes;
+    private byte[] cssHeavyPageBytes;
+
+    @Setup
+    public void setUp() {
+        largePageBytes = Fixtures.largeHtmlPage(5000).getBytes(StandardCharsets.UTF_8);
+        cssHeavyPageBytes = Fixtures.cssHeavyPage(2000).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Set<String> scanLargePage() throws IOException {
+        return scan(largePageBytes);
+    }
+
+    @Benchmark
+    public Set<String> scanCssHeavyPage() throws IOException {
+        return scan(cssHeavyPageBytes);
+    }
+
+    // The --convert-links save path: extraction plus rewriting every link into the output
+    @Benchmark
+    public int rewriteLargePage() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(largePageBytes.length);
+        LinkScanner scanner = new HtmlParser(null, null).newLinkScanner(Fixtures.BASE_URL + "index.html",
+                link -> {
+                }, link -> link.substring(link.indexOf('/', "http://".length()) + 1));
+        for (int offset = 0; offset < largePageBytes.length; offset += 8192) {
+            scanner.filter(largePageBytes, offset, Math.min(8192, largePageBytes.length - offset), out);
+        }
+        scanner.finish(out);
+        return out.size();
+    }
+
+    // Feeds the page in 8 KB chunks, the way FileManager.save hands it to the scanner
+    private Set<String> scan(byte[] page) throws IOException {
+        Set<String> links = new HashSet<>();
+        LinkScanner scanner = new HtmlParser(null, null).newLinkScanner(Fixtures.BASE_URL + "index.html", links::add);
+        for (int offset = 0; offset < page.length; offset += 8192) {
+            scanner.feed(page, offset, Math.min(8192, page.length - offset));
+        }
+        scanner.finish();
+        return links;
+    }
+}
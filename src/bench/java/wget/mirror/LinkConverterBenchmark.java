@@ -0,0 +1,91 @@
+package wget.mirror;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wget.bench.Fixtures;
+
+// What --convert-links leaves for after the crawl: pointing links to files that failed back at the
+// web. Pages are converted while they are saved, so that path is in HtmlParserBenchmark.rewriteLargePage.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LinkConverterBenchmark {
+    private static final int PAGES = 200;
+    private static final String PAGE = Fixtures.largeHtmlPage(200);
+
+    // Targets that failed during the crawl; with none the pages are only read
+    @Param({ "0", "20" })
+    public int missing;
+
+    private Path directory;
+    private final List<String> pages = new ArrayList<>();
+    private final Map<String, String> missingTargets = new HashMap<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("wget-bench");
+        for (int i = 0; i < PAGES; i++) {
+            Path page = directory.resolve(Fixtures.pagePath(i).substring(1));
+            pages.add(page.toString());
+        }
+        for (int i = 0; i < missing; i++) {
+            String target = LinkConverter.targetKey(directory.resolve(Fixtures.pagePath(i * 7).substring(1)).toString());
+            missingTargets.put(target, "http://example.com" + Fixtures.pagePath(i * 7));
+        }
+    }
+
+    // Restoring rewrites the pages, so every run starts from freshly converted ones
+    @Setup(Level.Invocation)
+    public void writePages() throws IOException {
+        for (String page : pages) {
+            Path path = Path.of(page);
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, converted(path));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void restoreLinks() {
+        LinkConverter.restoreLinks(pages, missingTargets);
+    }
+
+    // The fixture page as it is saved with --convert-links: absolute links made relative to the page
+    private String converted(Path page) {
+        Path from = page.getParent();
+        return PAGE.replaceAll("href=\"/(docs/[^\"]+)\"", "href=\"" + from.relativize(directory).toString()
+                .replace('\\', '/') + "/$1\"");
+    }
+}
@@ -0,0 +1,69 @@
+package wget.mirror;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import wget.bench.Fixtures;
+
+// Link resolution as the crawl does it for every link on a page, against the URI-based resolution it
+// replaced (which neither lowercased hosts nor dropped fragments and default ports)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UrlCanonicalizerBenchmark {
+    private static final String BASE = Fixtures.BASE_URL + "guide/index.html";
+    private static final String[] LINKS = {
+            "page-1.html",
+            "../images/figure-1.png",
+            "/static/site.css",
+            "#section-4",
+            "http://example.com/docs/section-3/page-17.html",
+            "HTTP://Example.COM:80/docs/./section-3/../page-18.html#top",
+            "search?q=wget&lang=en",
+            "//cdn.example.com/lib.js",
+    };
+
+    private UrlCanonicalizer canonicalizer;
+    private URI baseUri;
+
+    @Setup
+    public void setUp() {
+        canonicalizer = new UrlCanonicalizer();
+        baseUri = URI.create(BASE);
+    }
+
+    @Benchmark
+    public void resolveLinks(Blackhole blackhole) {
+        for (String link : LINKS) {
+            blackhole.consume(canonicalizer.resolve(BASE, link));
+        }
+    }
+
+    @Benchmark
+    public void resolveLinksWithUri(Blackhole blackhole) {
+        for (String link : LINKS) {
+            blackhole.consume(baseUri.resolve(link).toString());
+        }
+    }
+
+    // Re-checking a URL that is already canonical, as replayed cache links are
+    @Benchmark
+    public String canonicalizeCanonical() {
+        return canonicalizer.canonicalize("http://example.com/docs/section-3/page-17.html?v=2");
+    }
+}
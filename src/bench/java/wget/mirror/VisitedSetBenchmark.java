@@ -0,0 +1,106 @@
+package wget.mirror;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wget.bench.Fixtures;
+
+// The crawl's visited set: URL fingerprints against the ConcurrentHashMap key set of Strings it
+// replaced. fillSet reports the heap the set retains; lookups are what every discovered link costs.
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class VisitedSetBenchmark {
+    @Param({ "fingerprint", "strings" })
+    public String impl;
+
+    @Param({ "1000000" })
+    public int urls;
+
+    private String[] urlList;
+    private FingerprintSet fingerprints;
+    private Set<String> strings;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long retainedMb;
+    }
+
+    @Setup
+    public void setUp() {
+        urlList = new String[urls];
+        for (int i = 0; i < urls; i++) {
+            urlList[i] = "http://example.com" + Fixtures.pagePath(i) + "?ref=" + (i % 97);
+        }
+        fill();
+    }
+
+    @Setup(Level.Iteration)
+    public void collect() {
+        System.gc();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void fillSet(Footprint footprint) {
+        fingerprints = null;
+        strings = null;
+        long before = usedHeap();
+        fill();
+        footprint.retainedMb = (usedHeap() - before) / (1024 * 1024);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Threads(8)
+    public boolean lookup() {
+        // Half the probes hit, half miss, as links to new and already seen pages would
+        int i = ThreadLocalRandom.current().nextInt(urls);
+        String url = (i & 1) == 0 ? urlList[i] : urlList[i] + "#x";
+        return impl.equals("fingerprint") ? fingerprints.contains(url) : strings.contains(url);
+    }
+
+    private void fill() {
+        if (impl.equals("fingerprint")) {
+            fingerprints = new FingerprintSet();
+            for (String url : urlList) {
+                // Copies, as a crawler's URLs come from parsed pages rather than one shared array
+                fingerprints.add(new String(url));
+            }
+        } else {
+            strings = ConcurrentHashMap.newKeySet();
+            for (String url : urlList) {
+                strings.add(new String(url));
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,53 @@
+package wget.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// What a request pays per timing with --metrics on: one record into a shared histogram, alone and
+// from the workers of a --jobs crawl at once
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistogramBenchmark {
+    private final Histogram histogram = new Histogram();
+
+    @Setup
+    public void setUp() {
+        // A crawl's worth of timings, so percentile() walks populated buckets
+        for (int i = 0; i < 100_000; i++) {
+            histogram.record(ThreadLocalRandom.current().nextLong(5_000_000));
+        }
+    }
+
+    @Benchmark
+    public void record() {
+        // Microseconds from sub-millisecond to a few seconds, as request timings fall
+        histogram.record(ThreadLocalRandom.current().nextLong(5_000_000));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordShared() {
+        histogram.record(ThreadLocalRandom.current().nextLong(5_000_000));
+    }
+
+    @Benchmark
+    public long percentile() {
+        return histogram.percentile(0.99);
+    }
+}
@@ -4,20 +4,27 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import wget.cli.ArgumentParser;
 import wget.cli.OutputFormatter;
+import wget.cli.ProgressRenderer;
 import wget.download.AsyncDownloader;
+import wget.download.DiskWriter;
 import wget.download.Downloader;
 import wget.download.FileManager;
-import wget.download.RateLimiter;
+import wget.download.HostRateLimits;
+import wget.download.RetryPolicy;
 import wget.mirror.WebsiteMirror;
 import wget.utils.FileUtils;
+import wget.utils.Metrics;
+import wget.utils.NetworkUtils;
 
 public class WgetApplication {
     private String path = "./downloads/";
     private OutputFormatter formatter;
-    private RateLimiter rateLimiter;
+    private HostRateLimits rateLimits = new HostRateLimits(null, null);
+    private RetryPolicy retries = new RetryPolicy();
     private ArgumentParser parser;
 
     public void run(String[] args) {
@@ -33,6 +40,7 @@ public class WgetApplication {
         } else {
             handleRegularDownloads();
         }
+        Metrics.close();
     }
 
     private boolean initialize(String[] args) {
@@ -41,6 +49,13 @@ public class WgetApplication {
             this.formatter = new OutputFormatter(this.parser);
             handlePath();
             handleRateLimit();
+            handleRetries();
+            NetworkUtils.configureCompression(!parser.hasOption("no-compression"), parser.hasOption("keep-compressed"));
+            DiskWriter.configure(parser.hasOption("write-behind"), parser.hasOption("fsync"));
+            if (!parser.hasOption("B")) {
+                // A background download hands these to the process that does the work
+                Metrics.configure(parser.getOptionValue("events"), parser.getOptionValue("metrics"));
+            }
             return true;
         } catch (Exception e) {
             System.err.printf("Error: %s%n", e.getMessage());
@@ -49,22 +64,29 @@ public class WgetApplication {
     }
 
     private void handleAsyncDownload() {
-        AsyncDownloader asyncDownloader = new AsyncDownloader();
+        AsyncDownloader asyncDownloader = parser.hasOption("virtual-threads")
+                ? AsyncDownloader.withVirtualThreads(retries)
+                : new AsyncDownloader(retries);
 
-        List<String> urlsFromFile;
+        // URLs are handed over as they are read; downloadAsync blocks while the scheduler is full,
+        // which keeps memory flat however long the list is
+        String input = parser.getOptionValue("i");
+        ProgressRenderer.openShared();
         try {
-            urlsFromFile = FileUtils.readFile(parser.getOptionValue("i"));
+            FileUtils.forEachUrl(input, url -> {
+                String fileName = FileManager.determineFileName(parser, url);
+                asyncDownloader.downloadAsync(url, fileName, path, "GET", formatter, rateLimits.forUrl(url));
+            });
         } catch (IOException e) {
-            System.err.printf("ERROR: reading file '%s': %s%n", parser.getOptionValue("i"), e.getMessage());
-            return;
-        }
-
-        for (String url : urlsFromFile) {
-            String fileName = FileManager.determineFileName(parser, url);
-            asyncDownloader.downloadAsync(url, fileName, path, "GET", formatter, rateLimiter);
+            System.err.printf("ERROR: reading file '%s': %s%n", input, e.getMessage());
+        } finally {
+            // The renderer's thread redraws the terminal until closed, so it must stop however the list ends
+            try {
+                asyncDownloader.shutdownAndAwaitTermination();
+            } finally {
+                ProgressRenderer.closeShared();
+            }
         }
-
-        asyncDownloader.shutdownAndAwaitTermination();
     }
 
     private void handleMirroring() {
@@ -97,10 +119,18 @@ public class WgetApplication {
                 System.out.println("Link conversion enabled for offline viewing.");
             }
 
+            int jobs = parser.getIntOptionValue("jobs", 1);
+
+            if (parser.hasOption("keep-compressed")) {
+                System.err.println("Warning: --keep-compressed does not apply to --mirror, which saves files decoded");
+            }
+
             // Create and run the mirror
             WebsiteMirror mirror = new WebsiteMirror(url,
-                    rejectedExtensions, excludedPaths, convertLinks);
-            mirror.mirror();
+                    rejectedExtensions, excludedPaths, convertLinks, jobs, rateLimits,
+                    parser.hasOption("virtual-threads"), parser.hasOption("sort-query"),
+                    parser.hasOption("dedup"), !parser.hasOption("no-robots"), retries);
+            mirror.mirror(parser.hasOption("resume"));
 
         } catch (Exception e) {
             System.err.printf("ERROR: mirroring '%s': %s%n", url, e.getMessage());
@@ -131,6 +161,39 @@ public class WgetApplication {
             if (parser.hasOption("rate-limit")) {
                 command.add("--rate-limit=" + parser.getOptionValue("rate-limit"));
             }
+            if (parser.hasOption("host-rate-limit")) {
+                command.add("--host-rate-limit=" + parser.getOptionValue("host-rate-limit"));
+            }
+            if (parser.hasOption("no-compression")) {
+                command.add("--no-compression");
+            }
+            if (parser.hasOption("keep-compressed")) {
+                command.add("--keep-compressed");
+            }
+            if (parser.hasOption("c")) {
+                command.add("--continue");
+            }
+            if (parser.hasOption("segments")) {
+                command.add("--segments=" + parser.getOptionValue("segments"));
+            }
+            if (parser.hasOption("tries")) {
+                command.add("--tries=" + parser.getOptionValue("tries"));
+            }
+            if (parser.hasOption("waitretry")) {
+                command.add("--waitretry=" + parser.getOptionValue("waitretry"));
+            }
+            if (parser.hasOption("write-behind")) {
+                command.add("--write-behind");
+            }
+            if (parser.hasOption("fsync")) {
+                command.add("--fsync");
+            }
+            if (parser.hasOption("events")) {
+                command.add("--events=" + parser.getOptionValue("events"));
+            }
+            if (parser.hasOption("metrics")) {
+                command.add("--metrics=" + parser.getOptionValue("metrics"));
+            }
             command.add(url);
 
             ProcessBuilder pb = new ProcessBuilder(command);
@@ -155,12 +218,30 @@ public class WgetApplication {
         }
 
         for (String url : urls) {
-            try {
-                String fileName = FileManager.determineFileName(parser, url);
-                Downloader downloader = new Downloader(url, fileName, path, "GET", formatter, rateLimiter);
-                downloader.download();
-            } catch (IOException e) {
-                System.err.printf("ERROR: downloading '%s': %s%n", url, e.getMessage());
+            String fileName = FileManager.determineFileName(parser, url);
+            Downloader downloader = new Downloader(url, fileName, path, "GET", formatter, rateLimits.forUrl(url));
+            for (int attempt = 1;; attempt++) {
+                try {
+                    downloader.download();
+                    break;
+                } catch (IOException e) {
+                    if (!retries.shouldRetry(e, attempt)) {
+                        System.err.printf("ERROR: downloading '%s': %s%n", url, e.getMessage());
+                        break;
+                    }
+                    // Nothing else runs meanwhile, so this thread can simply wait out the backoff
+                    long delay = retries.delayNanos(e, attempt);
+                    Metrics.retried();
+                    System.err.printf("Retrying '%s' in %.1fs (attempt %d of %d): %s%n", url, delay / 1e9,
+                            attempt + 1, retries.getTries(), e.getMessage());
+                    downloader.prepareRetry();
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
             }
         }
     }
@@ -182,17 +263,34 @@ public class WgetApplication {
     }
 
     private void handleRateLimit() {
-        if (parser.hasOption("rate-limit")) {
+        if (parser.hasOption("rate-limit") || parser.hasOption("host-rate-limit")) {
             try {
-                String rateLimitStr = parser.getOptionValue("rate-limit");
-                rateLimiter = new RateLimiter(rateLimitStr);
-                System.out.printf("Rate limiting enabled: %d bytes/sec%n", rateLimiter.getBytesPerSecond());
+                rateLimits = new HostRateLimits(parser.getOptionValue("rate-limit"),
+                        parser.getOptionValue("host-rate-limit"));
+                if (rateLimits.getGlobal() != null) {
+                    System.out.printf("Rate limiting enabled: %d bytes/sec%n", rateLimits.getGlobal().getBytesPerSecond());
+                }
+                if (rateLimits.getHostBytesPerSecond() > 0) {
+                    System.out.printf("Per-host rate limiting enabled: %d bytes/sec%n",
+                            rateLimits.getHostBytesPerSecond());
+                }
             } catch (IllegalArgumentException e) {
                 System.err.printf("Error parsing rate limit: %s%n", e.getMessage());
             }
         }
     }
 
+    private void handleRetries() {
+        if (parser.hasOption("tries") || parser.hasOption("waitretry")) {
+            try {
+                retries = new RetryPolicy(parser.getIntOptionValue("tries", RetryPolicy.DEFAULT_TRIES),
+                        parser.getIntOptionValue("waitretry", (int) RetryPolicy.DEFAULT_MAX_WAIT_SECONDS));
+            } catch (IllegalArgumentException e) {
+                System.err.printf("Error parsing retry options: %s%n", e.getMessage());
+            }
+        }
+    }
+
     private String[] getUrls() {
         if (parser.hasOption("i")) {
             try {
@@ -12,11 +12,30 @@ public class ArgumentParser {
     private final Options options;
     private String[] urls;
 
+    private static final String[] POSITIVE_INT_OPTIONS = { "jobs", "segments" };
+
     public ArgumentParser(String[] args) throws ParseException {
         this.options = defineOptions();
         CommandLineParser parser = new DefaultParser();
         this.cmd = parser.parse(options, args);
         this.urls = cmd.getArgs();
+        validatePositiveInts();
+    }
+
+    private void validatePositiveInts() throws ParseException {
+        for (String opt : POSITIVE_INT_OPTIONS) {
+            if (!cmd.hasOption(opt)) {
+                continue;
+            }
+            String value = cmd.getOptionValue(opt);
+            try {
+                if (Integer.parseInt(value.trim()) < 1) {
+                    throw new ParseException("Value of --" + opt + " must be at least 1: " + value);
+                }
+            } catch (NumberFormatException e) {
+                throw new ParseException("Invalid value for --" + opt + ": " + value);
+            }
+        }
     }
 
     private Options defineOptions() {
@@ -28,12 +47,29 @@ public class ArgumentParser {
         opts.addOption("P", true, "Output directory");
         opts.addOption("i", true, "Input file with URLs");
         opts.addOption(null, "rate-limit", true, "Limit download speed (e.g., 500k, 2M)");
+        opts.addOption(null, "host-rate-limit", true, "Limit download speed per host, within --rate-limit");
+        opts.addOption("c", "continue", false, "Resume a partially downloaded file");
+        opts.addOption(null, "segments", true, "Download a single file over N parallel range requests");
+        opts.addOption(null, "no-compression", false, "Do not ask servers for gzip/deflate compressed responses");
+        opts.addOption(null, "keep-compressed", false, "Save compressed responses as received instead of decoding them");
+        opts.addOption(null, "tries", true, "Try each download up to N times on network errors and 5xx/429 (default: 3)");
+        opts.addOption(null, "waitretry", true, "Wait at most N seconds between retries (default: 10)");
+        opts.addOption(null, "write-behind", false, "Write to disk on a separate thread while the next data is received");
+        opts.addOption(null, "fsync", false, "Flush each finished file to stable storage before counting it as saved");
+        opts.addOption(null, "events", true, "Append a JSON line per request and parsed page to this file");
+        opts.addOption(null, "metrics", true, "Keep Prometheus-format timing histograms and counters in this file");
+        opts.addOption(null, "virtual-threads", false, "Run -i downloads and --mirror workers on virtual threads (Java 21+)");
 
         // Mirroring options
         opts.addOption(null, "mirror", false, "Mirror entire website");
         opts.addOption("R", "reject", true, "Comma-separated list of file suffixes to reject (e.g., jpg,gif,png)");
         opts.addOption("X", "exclude", true, "Comma-separated list of paths to exclude (e.g., /js,/css)");
         opts.addOption(null, "convert-links", false, "Convert links for offline viewing");
+        opts.addOption(null, "jobs", true, "Number of parallel crawl workers for --mirror (default: 1)");
+        opts.addOption(null, "sort-query", false, "Treat URLs whose query parameters differ only in order as one (--mirror)");
+        opts.addOption(null, "no-robots", false, "Ignore robots.txt and its Crawl-delay (--mirror)");
+        opts.addOption(null, "dedup", false, "Store identical mirrored files once, as hard links (--mirror)");
+        opts.addOption(null, "resume", false, "Continue an interrupted --mirror from its saved crawl state");
 
         opts.addOption(null, "background", false, "for background process");
         return opts;
@@ -47,6 +83,13 @@ public class ArgumentParser {
         return cmd.getOptionValue(opt);
     }
 
+    public int getIntOptionValue(String opt, int defaultValue) {
+        if (!cmd.hasOption(opt)) {
+            return defaultValue;
+        }
+        return Integer.parseInt(cmd.getOptionValue(opt).trim());
+    }
+
     public String[] getUrls() {
         return this.urls;
     }
@@ -62,10 +105,21 @@ public class ArgumentParser {
                         "  ./wget -P=/downloads/ https://example.com/file.zip\n" +
                         "  ./wget -B https://example.com/file.zip\n" +
                         "  ./wget --rate-limit=500k https://example.com/file.zip\n" +
+                        "  ./wget --host-rate-limit=200k -i=urls.txt\n" +
+                        "  ./wget --segments=4 https://example.com/file.zip\n" +
+                        "  ./wget -c https://example.com/file.zip\n" +
+                        "  ./wget --tries=5 --waitretry=30 https://example.com/file.zip\n" +
+                        "  ./wget --keep-compressed https://example.com/data.json\n" +
                         "  ./wget -i=urls.txt\n" +
+                        "  ./wget --metrics=wget.prom --events=events.jsonl -i=urls.txt\n" +
+                        "  ./wget --virtual-threads -i=urls.txt\n" +
                         "  ./wget --mirror https://example.com\n" +
                         "  ./wget --mirror -R=jpg,gif,png https://example.com\n" +
+                        "  ./wget --mirror --write-behind --fsync https://example.com\n" +
                         "  ./wget --mirror -X=/js,/css https://example.com\n" +
-                        "  ./wget --mirror --convert-links https://example.com\n");
+                        "  ./wget --mirror --convert-links https://example.com\n" +
+                        "  ./wget --mirror --jobs=8 https://example.com\n" +
+                        "  ./wget --mirror --dedup https://example.com\n" +
+                        "  ./wget --mirror --resume https://example.com\n");
     }
 }
\ No newline at end of file
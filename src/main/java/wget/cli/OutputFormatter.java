@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 
 import wget.utils.FormatUtils;
+import wget.utils.HttpStatusException;
+import wget.utils.NetworkUtils;
 import wget.utils.TimeUtils;
 
 public class OutputFormatter {
@@ -27,12 +29,13 @@ public class OutputFormatter {
         System.out.printf("--Sending request, awaiting response... Status %d %s%n",
                 status, conn.getResponseMessage());
 
-        if (status != HttpURLConnection.HTTP_OK) {
-            throw new IOException("Download failed. Status: " + status);
+        if (status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_PARTIAL) {
+            throw new HttpStatusException("Download failed. Status: " + status, status,
+                    NetworkUtils.retryAfterNanos(conn));
         }
     }
 
-    public void printContentSize(int contentLength, String contentType) {
+    public void printContentSize(long contentLength, String contentType) {
         if (contentLength < 0) {
             System.out.printf("Content size: unspecified [%s]%n", contentType);
         } else {
@@ -40,40 +43,31 @@ public class OutputFormatter {
         }
     }
 
-    public static void printProgressBar(long downloaded, long contentLength, int barWidth, long startNano) {
-        long elapsedNs = System.nanoTime() - startNano;
-        double elapsedSec = elapsedNs / 1_000_000_000.0;
-
-        double speedBytesPerSec = downloaded / elapsedSec;
-        double speedMiB = speedBytesPerSec / (1024 * 1024);
-
-        double progress = contentLength > 0 ? (double) downloaded / contentLength : 0;
-        int filled = (int) (barWidth * progress);
-
-        StringBuilder bar = new StringBuilder();
-        bar.append('[');
-        for (int i = 0; i < filled; i++) {
-            bar.append('=');
-        }
-        for (int i = filled; i < barWidth; i++) {
-            bar.append(' ');
-        }
-        bar.append(']');
-
-        String downloadedStr = FormatUtils.formatBytes(downloaded);
-        String totalStr = contentLength > 0 ? FormatUtils.formatBytes(contentLength) : "Unknown";
-        double percent = progress * 100;
+    // The single-download bar, drawn by ProgressRenderer; resumedFrom is the part of `downloaded` that
+    // was already on disk and does not count towards the speed
+    static void appendProgressBar(StringBuilder out, long downloaded, long contentLength, int barWidth,
+            long startNano, long resumedFrom) {
+        double elapsedSec = (System.nanoTime() - startNano) / 1_000_000_000.0;
+        double speedBytesPerSec = elapsedSec > 0 ? (downloaded - resumedFrom) / elapsedSec : 0;
+        double progress = contentLength > 0 ? Math.min(1, (double) downloaded / contentLength) : 0;
 
         long remainingSec = (speedBytesPerSec > 0 && contentLength > downloaded)
                 ? (long) ((contentLength - downloaded) / speedBytesPerSec)
                 : 0;
 
-        System.out.printf("\r %s / %s %s %6.2f%% %4.2f MiB/s %ds  ",
-                downloadedStr,
-                totalStr,
-                bar.toString(),
-                percent,
-                speedMiB,
-                remainingSec);
+        out.append("\r ").append(FormatUtils.formatBytes(downloaded)).append(" / ")
+                .append(contentLength > 0 ? FormatUtils.formatBytes(contentLength) : "Unknown").append(' ');
+        appendBar(out, progress, barWidth);
+        out.append(String.format(" %6.2f%% %4.2f MiB/s %ds  ", progress * 100,
+                speedBytesPerSec / (1024 * 1024), remainingSec));
+    }
+
+    static void appendBar(StringBuilder out, double progress, int barWidth) {
+        int filled = (int) (barWidth * progress);
+        out.append('[');
+        for (int i = 0; i < barWidth; i++) {
+            out.append(i < filled ? '=' : ' ');
+        }
+        out.append(']');
     }
 }
@@ -0,0 +1,285 @@
+package wget.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import wget.utils.FormatUtils;
+import wget.utils.TerminalUtils;
+
+// Draws download progress from one thread at a fixed frame rate. A transfer only adds to a counter
+// (a LongAdder, so the threads of a segmented download do not contend), and nothing on the
+// transfer's path ever formats or waits on the terminal.
+//
+// A lone download gets the one-line bar. Concurrent -i downloads share one renderer that draws a
+// line per active download plus a total, redrawn in place with ANSI cursor movement. Meanwhile
+// System.out and System.err are held and printed above the block on each frame, so log lines from
+// the workers never tear it.
+public class ProgressRenderer {
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Columns the single-line bar leaves for sizes, percentage, speed and ETA
+    private static final int SINGLE_LINE_TEXT = 65;
+    private static final int LABEL_WIDTH = 24;
+    private static final int MAX_LINES = 10;
+
+    private static volatile ProgressRenderer shared;
+
+    private final boolean multiLine;
+    private final int width;
+    private final Queue<Transfer> active = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock drawLock = new ReentrantLock();
+    private final StringBuilder frame = new StringBuilder(256);
+    private final Thread thread;
+    private volatile boolean closed;
+
+    // Multi-line mode only
+    private final long startNano = System.nanoTime();
+    private final AtomicLong finishedBytes = new AtomicLong();
+    private final AtomicInteger finished = new AtomicInteger();
+    private PrintStream terminal;
+    private PrintStream terminalErr;
+    private HeldOutput heldOut;
+    private HeldOutput heldErr;
+    private int drawnLines;
+
+    public class Transfer {
+        private final String label;
+        private final long total;
+        private final long resumedFrom;
+        private final long startNano = System.nanoTime();
+        private final LongAdder received = new LongAdder();
+
+        Transfer(String label, long total, long resumedFrom) {
+            this.label = label;
+            this.total = total;
+            this.resumedFrom = resumedFrom;
+        }
+
+        public void add(long bytes) {
+            received.add(bytes);
+        }
+
+        public void finish() {
+            ProgressRenderer.this.finish(this);
+        }
+
+        long downloaded() {
+            return resumedFrom + received.sum();
+        }
+    }
+
+    private ProgressRenderer(boolean multiLine) {
+        this.multiLine = multiLine;
+        this.width = TerminalUtils.getTerminalWidth();
+        if (multiLine) {
+            terminal = System.out;
+            terminalErr = System.err;
+            heldOut = new HeldOutput();
+            heldErr = new HeldOutput();
+            System.setOut(new PrintStream(heldOut, true));
+            System.setErr(new PrintStream(heldErr, true));
+        }
+        thread = new Thread(this::run, "wget-progress");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // The renderer for one download in the foreground; it stops when that download finishes
+    public static ProgressRenderer singleLine() {
+        return new ProgressRenderer(false);
+    }
+
+    // Starts the renderer concurrent downloads share, when output is a terminal that can be redrawn;
+    // otherwise they run without progress as before
+    public static void openShared() {
+        if (System.console() != null && shared == null) {
+            shared = new ProgressRenderer(true);
+        }
+    }
+
+    // Null when there is no shared renderer
+    public static ProgressRenderer shared() {
+        return shared;
+    }
+
+    public static void closeShared() {
+        ProgressRenderer renderer = shared;
+        if (renderer != null) {
+            shared = null;
+            renderer.close();
+        }
+    }
+
+    // total and resumedFrom follow the download's own accounting: -1 for an unknown total, and
+    // resumedFrom bytes count as done without counting towards the speed
+    public Transfer begin(String label, long total, long resumedFrom) {
+        Transfer transfer = new Transfer(label, total, resumedFrom);
+        active.add(transfer);
+        return transfer;
+    }
+
+    private void finish(Transfer transfer) {
+        if (!multiLine) {
+            // Its only transfer: draw the final state and hand the line back
+            close();
+            return;
+        }
+        active.remove(transfer);
+        finishedBytes.addAndGet(transfer.received.sum());
+        finished.incrementAndGet();
+    }
+
+    private void run() {
+        while (!closed) {
+            draw();
+            LockSupport.parkNanos(FRAME_NANOS);
+        }
+    }
+
+    private void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        draw();
+        drawLock.lock();
+        try {
+            if (multiLine) {
+                System.setOut(terminal);
+                System.setErr(terminalErr);
+                terminal.print('\n');
+            } else {
+                System.out.print("\n\n");
+            }
+            System.out.flush();
+        } finally {
+            drawLock.unlock();
+        }
+    }
+
+    private void draw() {
+        drawLock.lock();
+        try {
+            frame.setLength(0);
+            if (multiLine) {
+                drawBlock();
+            } else {
+                Transfer transfer = active.peek();
+                if (transfer == null) {
+                    return;
+                }
+                OutputFormatter.appendProgressBar(frame, transfer.downloaded(), transfer.total,
+                        width - SINGLE_LINE_TEXT, transfer.startNano, transfer.resumedFrom);
+                System.out.print(frame);
+                System.out.flush();
+            }
+        } finally {
+            drawLock.unlock();
+        }
+    }
+
+    // Erases the previous block, prints what other threads wrote since, and draws the block below it
+    private void drawBlock() {
+        if (drawnLines > 0) {
+            frame.append('\r');
+            if (drawnLines > 1) {
+                frame.append("\033[").append(drawnLines - 1).append('A');
+            }
+            frame.append("\033[J");
+        }
+        terminal.print(frame);
+        frame.setLength(0);
+        terminal.flush();
+        heldErr.drainTo(terminalErr, closed);
+        heldOut.drainTo(terminal, closed);
+
+        List<Transfer> transfers = new ArrayList<>(active);
+        long activeBytes = 0;
+        int lines = 0;
+        for (Transfer transfer : transfers) {
+            activeBytes += transfer.received.sum();
+            if (lines < MAX_LINES) {
+                appendLine(transfer);
+                frame.append('\n');
+                lines++;
+            }
+        }
+        if (transfers.size() > lines) {
+            frame.append(" ... and ").append(transfers.size() - lines).append(" more\n");
+            lines++;
+        }
+
+        long bytes = finishedBytes.get() + activeBytes;
+        double elapsedSec = (System.nanoTime() - startNano) / 1_000_000_000.0;
+        frame.append(String.format(" Total: %d active, %d done, %s, %.2f MiB/s", transfers.size(), finished.get(),
+                FormatUtils.formatBytes(bytes), elapsedSec > 0 ? bytes / elapsedSec / (1024 * 1024) : 0.0));
+        terminal.print(frame);
+        terminal.flush();
+        drawnLines = lines + 1;
+    }
+
+    private void appendLine(Transfer transfer) {
+        String label = transfer.label.length() > LABEL_WIDTH
+                ? transfer.label.substring(0, LABEL_WIDTH - 1) + "~"
+                : transfer.label;
+        long downloaded = transfer.downloaded();
+        double elapsedSec = (System.nanoTime() - transfer.startNano) / 1_000_000_000.0;
+        double speed = elapsedSec > 0 ? transfer.received.sum() / elapsedSec : 0;
+        double progress = transfer.total > 0 ? Math.min(1, (double) downloaded / transfer.total) : 0;
+
+        frame.append(' ').append(label);
+        for (int i = label.length(); i < LABEL_WIDTH; i++) {
+            frame.append(' ');
+        }
+        frame.append(' ');
+        // Label, sizes, percentage and speed take about 60 columns; the bar gets the rest
+        OutputFormatter.appendBar(frame, progress, Math.max(10, width - 62));
+        frame.append(String.format(" %10s %6.2f%% %6.2f MiB/s", FormatUtils.formatBytes(downloaded),
+                progress * 100, speed / (1024 * 1024)));
+    }
+
+    // Buffers what other threads print while the block is on screen
+    private static final class HeldOutput extends OutputStream {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void write(int b) {
+            buffer.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            buffer.write(b, off, len);
+        }
+
+        // Only whole lines unless all is set: the block is drawn right after, and erasing it would
+        // take a partial line with it
+        synchronized void drainTo(PrintStream out, boolean all) {
+            byte[] bytes = buffer.toByteArray();
+            int end = bytes.length;
+            while (!all && end > 0 && bytes[end - 1] != '\n') {
+                end--;
+            }
+            if (end > 0) {
+                out.write(bytes, 0, end);
+                out.flush();
+                buffer.reset();
+                buffer.write(bytes, end, bytes.length - end);
+            }
+        }
+    }
+}
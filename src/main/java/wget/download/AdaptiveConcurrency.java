@@ -0,0 +1,99 @@
+package wget.download;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// AIMD concurrency limit for AsyncDownloader. Completions are grouped into short windows; at the end
+// of each the limit halves if a server pushed back, shrinks by a quarter if latency climbed without
+// any gain in throughput (requests are just queueing somewhere), and otherwise grows by one while
+// the current limit is actually being used.
+class AdaptiveConcurrency {
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    // Latency this far above the best seen means added parallelism is only adding queueing
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // Throughput gain below this counts as no gain
+    private static final double THROUGHPUT_GAIN = 1.05;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int min;
+    private final int max;
+    private int limit;
+
+    private long windowStart = System.nanoTime();
+    private long windowBytes;
+    private long windowLatencyNanos;
+    private int windowCompletions;
+    private int windowPeakInFlight;
+    private boolean windowThrottled;
+
+    private double lastThroughput;
+    private double baseLatency = Double.MAX_VALUE;
+
+    AdaptiveConcurrency(int initial, int min, int max) {
+        this.limit = initial;
+        this.min = min;
+        this.max = max;
+    }
+
+    int limit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onStart(int inFlight) {
+        lock.lock();
+        try {
+            windowPeakInFlight = Math.max(windowPeakInFlight, inFlight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onComplete(long bytes, long latencyNanos, boolean throttled) {
+        lock.lock();
+        try {
+            completeLocked(bytes, latencyNanos, throttled);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void completeLocked(long bytes, long latencyNanos, boolean throttled) {
+        windowBytes += bytes;
+        windowLatencyNanos += latencyNanos;
+        windowCompletions++;
+        windowThrottled |= throttled;
+
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW_NANOS) {
+            return;
+        }
+
+        double throughput = windowBytes * 1e9 / elapsed;
+        double latency = (double) windowLatencyNanos / windowCompletions;
+
+        if (windowThrottled) {
+            limit = Math.max(min, limit / 2);
+        } else if (latency > baseLatency * LATENCY_TOLERANCE && throughput < lastThroughput * THROUGHPUT_GAIN) {
+            limit = Math.max(min, limit - Math.max(1, limit / 4));
+        } else if (windowPeakInFlight >= limit) {
+            limit = Math.min(max, limit + 1);
+        }
+
+        // Let the baseline drift up slowly so one lucky window does not pin it forever
+        baseLatency = Math.min(baseLatency * 1.05, latency);
+        lastThroughput = throughput;
+
+        windowStart = now;
+        windowBytes = 0;
+        windowLatencyNanos = 0;
+        windowCompletions = 0;
+        windowPeakInFlight = 0;
+        windowThrottled = false;
+    }
+}
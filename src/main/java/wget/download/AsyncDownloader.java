@@ -1,33 +1,377 @@
 package wget.download;
 
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import wget.cli.OutputFormatter;
+import wget.utils.HttpStatusException;
+import wget.utils.Metrics;
+import wget.utils.NetworkUtils;
+import wget.utils.VirtualThreads;
 
+// Runs -i downloads with a concurrency limit that adapts to measured throughput and latency (see
+// AdaptiveConcurrency). URLs wait in one queue per host and hosts are served round robin, so a list
+// dominated by one host cannot starve the others, and each host has its own AIMD cap that halves
+// when the server answers 429/503 or stops accepting connections.
+//
+// A download that fails in a way worth retrying (see RetryPolicy) goes back into its host's queue
+// once its backoff has passed; a timer thread puts it there, so no worker waits out the backoff.
+// Hosts that keep failing are paused by their circuit breaker (see HostCircuitBreakers).
+//
+// With --virtual-threads every download instead gets its own thread, bounded by a global and a
+// per-host semaphore, and waits out its backoff on that thread. Locks here are ReentrantLocks,
+// never synchronized, so a virtual thread blocking in them does not pin its carrier.
 public class AsyncDownloader {
+    private static final int INITIAL_CONCURRENCY = 5;
+    private static final int MAX_CONCURRENCY = 64;
+    private static final int INITIAL_PER_HOST = 4;
+    private static final int MAX_PER_HOST = 8;
+    // Downloads in flight at once in thread-per-download mode
+    private static final int MAX_VIRTUAL_IN_FLIGHT = 1024;
+    // Downloads waiting for a slot before downloadAsync makes the caller wait
+    private static final int MAX_QUEUED = 1024;
 
     private final ExecutorService executor;
-    private static final int MAX_CONCURRENT_DOWNLOADS = 5;
+    private final AdaptiveConcurrency concurrency;
+    private final RetryPolicy retries;
+    private final HostCircuitBreakers breakers;
+    private final Map<String, HostQueue> hosts = new HashMap<>();
+    // Hosts with queued downloads and a free slot, in the order they get their next turn
+    private final ArrayDeque<HostQueue> rotation = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition idle = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int inFlight;
+    private int queued;
+    // Downloads waiting out a backoff before they are queued again
+    private int waiting;
+    private final ScheduledExecutorService retryTimer;
+
+    // Thread-per-download mode only
+    private final Semaphore inFlightPermits;
+    private final int permitsPerHost;
+    // Dropped once no download holds or waits for the host's permits
+    private final Map<String, HostPermits> hostPermits = new ConcurrentHashMap<>();
+
+    private static final class HostPermits {
+        final Semaphore permits;
+        // Downloads started and not yet finished; changed only inside the map's compute calls
+        int users;
+
+        HostPermits(int permits) {
+            this.permits = new Semaphore(permits);
+        }
+    }
+
+    private static class HostQueue {
+        final String name;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        int limit = INITIAL_PER_HOST;
+        int inFlight;
+        int successes;
+        boolean inRotation;
+
+        HostQueue(String name) {
+            this.name = name;
+        }
+    }
 
     public AsyncDownloader() {
-        this.executor = Executors.newFixedThreadPool(MAX_CONCURRENT_DOWNLOADS);
+        this(new RetryPolicy());
+    }
+
+    public AsyncDownloader(RetryPolicy retries) {
+        this.executor = Executors.newCachedThreadPool();
+        this.concurrency = new AdaptiveConcurrency(INITIAL_CONCURRENCY, 1, MAX_CONCURRENCY);
+        this.retries = retries;
+        this.breakers = new HostCircuitBreakers(retries.getTries());
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "wget-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.inFlightPermits = null;
+        this.permitsPerHost = 0;
+    }
+
+    // Thread-per-download mode: perTaskExecutor starts a thread for every task it is given
+    public AsyncDownloader(ExecutorService perTaskExecutor, int maxInFlight, int maxPerHost) {
+        this(perTaskExecutor, maxInFlight, maxPerHost, new RetryPolicy());
+    }
+
+    public AsyncDownloader(ExecutorService perTaskExecutor, int maxInFlight, int maxPerHost, RetryPolicy retries) {
+        this.executor = perTaskExecutor;
+        this.concurrency = null;
+        this.retries = retries;
+        this.breakers = new HostCircuitBreakers(retries.getTries());
+        this.retryTimer = null;
+        this.inFlightPermits = new Semaphore(maxInFlight);
+        this.permitsPerHost = maxPerHost;
+    }
+
+    // Virtual threads when the runtime has them, otherwise the adaptive scheduler
+    public static AsyncDownloader withVirtualThreads(RetryPolicy retries) {
+        ExecutorService executor = VirtualThreads.newPerTaskExecutor();
+        if (executor == null) {
+            System.err.printf("Warning: %s; using platform threads%n", VirtualThreads.unsupportedReason());
+            return new AsyncDownloader(retries);
+        }
+        return new AsyncDownloader(executor, MAX_VIRTUAL_IN_FLIGHT, NetworkUtils.MAX_CONNECTIONS_PER_HOST, retries);
     }
 
     public void downloadAsync(String url, String fileName, String path, String method, OutputFormatter formatter, RateLimiter rateLimiter) {
-        executor.submit(() -> {
-            Downloader downloader = new Downloader(url, fileName, path, method, formatter, rateLimiter);
+        if (inFlightPermits != null) {
+            startThread(new Downloader(url, fileName, path, method, formatter, rateLimiter), url);
+            return;
+        }
+
+        lock.lock();
+        try {
+            while (queued >= MAX_QUEUED) {
+                notFull.await();
+            }
+            enqueue(new Downloader(url, fileName, path, method, formatter, rateLimiter), url, 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The global permit is taken on the caller's thread, so a long list waits here instead of
+    // piling up threads; the host permit is taken on the download's own thread
+    private void startThread(Downloader downloader, String url) {
+        try {
+            inFlightPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        String hostName = hostOf(url);
+        Semaphore host = hostPermits.compute(hostName, (h, entry) -> {
+            HostPermits permits = entry != null ? entry : new HostPermits(permitsPerHost);
+            permits.users++;
+            return permits;
+        }).permits;
+        executor.execute(() -> {
             try {
-                downloader.download();
-            } catch (IOException e) {
-                System.err.printf("ERROR: downloading '%s': %s%n", url, e.getMessage());
+                int attempt = 1;
+                while (true) {
+                    long wait = breakers.admit(url);
+                    if (wait < 0) {
+                        giveUp(url);
+                        break;
+                    }
+                    if (wait == 0) {
+                        host.acquire();
+                        try {
+                            downloader.download();
+                            breakers.succeeded(url);
+                            break;
+                        } catch (IOException | RuntimeException e) {
+                            wait = failed(downloader, url, e, attempt++);
+                        } finally {
+                            host.release();
+                        }
+                        if (wait < 0) {
+                            break;
+                        }
+                    }
+                    // A sleeping virtual thread hands its carrier back, so the backoff holds no platform thread
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                hostPermits.computeIfPresent(hostName, (h, entry) -> --entry.users == 0 ? null : entry);
+                inFlightPermits.release();
             }
         });
     }
 
+    // Reports a failed try: -1 when the download has failed for good, otherwise how long to wait
+    // before the next try
+    private long failed(Downloader downloader, String url, Exception e, int attempt) {
+        if (RetryPolicy.isRetryable(e)) {
+            breakers.failed(url);
+        } else {
+            // Not a sign of trouble with the host
+            breakers.succeeded(url);
+        }
+        if (!retries.shouldRetry(e, attempt)) {
+            System.err.printf("ERROR: downloading '%s': %s%n", url, e.getMessage());
+            return -1;
+        }
+        long delay = retries.delayNanos(e, attempt);
+        Metrics.retried();
+        System.err.printf("Retrying '%s' in %.1fs (attempt %d of %d): %s%n", url, delay / 1e9,
+                attempt + 1, retries.getTries(), e.getMessage());
+        downloader.prepareRetry();
+        return delay;
+    }
+
+    private static void giveUp(String url) {
+        System.err.printf("ERROR: downloading '%s': host is not responding, giving up%n", url);
+    }
+
+    // Queues a download behind its host's others; caller holds lock
+    private void enqueue(Downloader downloader, String url, int attempt) {
+        HostQueue host = hosts.computeIfAbsent(hostOf(url), HostQueue::new);
+        host.tasks.add(() -> run(host, downloader, url, attempt));
+        queued++;
+        schedule(host);
+        dispatch();
+    }
+
+    // Queues the download again once delayNanos have passed; caller holds lock
+    private void enqueueLater(Downloader downloader, String url, int attempt, long delayNanos) {
+        waiting++;
+        retryTimer.schedule(() -> {
+            lock.lock();
+            try {
+                waiting--;
+                // Looked up again by name: the host's entry may have been dropped while it was idle
+                enqueue(downloader, url, attempt);
+            } finally {
+                lock.unlock();
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Starts queued downloads while both the global and the per-host limits allow; caller holds lock
+    private void dispatch() {
+        while (inFlight < concurrency.limit() && !rotation.isEmpty()) {
+            HostQueue host = rotation.poll();
+            host.inRotation = false;
+            Runnable task = host.tasks.poll();
+            host.inFlight++;
+            inFlight++;
+            queued--;
+            notFull.signal();
+            concurrency.onStart(inFlight);
+            executor.execute(task);
+            schedule(host);
+        }
+    }
+
+    // A host waits in the rotation only while it has work and a free slot, so dispatch never spins
+    // over saturated hosts; finishing one of its downloads puts it back
+    private void schedule(HostQueue host) {
+        if (!host.inRotation && !host.tasks.isEmpty() && host.inFlight < host.limit) {
+            host.inRotation = true;
+            rotation.add(host);
+        }
+    }
+
+    private void run(HostQueue host, Downloader downloader, String url, int attempt) {
+        long admitted = breakers.admit(url);
+        if (admitted != 0) {
+            // Its host is paused: give the slot back without counting this as a try
+            lock.lock();
+            try {
+                host.inFlight--;
+                inFlight--;
+                if (admitted > 0) {
+                    enqueueLater(downloader, url, attempt, admitted);
+                } else {
+                    giveUp(url);
+                }
+                schedule(host);
+                dispatch();
+                idle.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean throttled = false;
+        long retryIn = -1;
+        try {
+            downloader.download();
+            breakers.succeeded(url);
+        } catch (IOException | RuntimeException e) {
+            throttled = isThrottling(e);
+            retryIn = failed(downloader, url, e, attempt);
+        } finally {
+            long latency = System.nanoTime() - start;
+            concurrency.onComplete(downloader.getBytesReceived(), latency, throttled);
+            lock.lock();
+            try {
+                host.inFlight--;
+                inFlight--;
+                if (retryIn >= 0) {
+                    enqueueLater(downloader, url, attempt + 1, retryIn);
+                }
+                if (throttled) {
+                    host.limit = Math.max(1, host.limit / 2);
+                    host.successes = 0;
+                } else if (++host.successes >= host.limit) {
+                    host.limit = Math.min(MAX_PER_HOST, host.limit + 1);
+                    host.successes = 0;
+                }
+                if (host.tasks.isEmpty() && host.inFlight == 0 && host.limit >= INITIAL_PER_HOST) {
+                    // Nothing queued and nothing learned worth keeping: don't hold one entry per host
+                    // for the whole of a list that spans millions of hosts
+                    hosts.remove(host.name);
+                }
+                schedule(host);
+                dispatch();
+                idle.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static boolean isThrottling(Exception e) {
+        if (e instanceof HttpStatusException) {
+            return ((HttpStatusException) e).isThrottling();
+        }
+        return e instanceof ConnectException || e instanceof SocketTimeoutException;
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String host = URI.create(url.trim()).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
     public void shutdownAndAwaitTermination() {
+        lock.lock();
+        try {
+            while (queued > 0 || inFlight > 0 || waiting > 0) {
+                idle.await();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            lock.unlock();
+        }
+
+        if (retryTimer != null) {
+            retryTimer.shutdown();
+        }
         executor.shutdown();
         try {
             executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
@@ -0,0 +1,12 @@
+package wget.download;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Transforms a response body on its way to disk; FileManager writes what the filter emits instead of the raw bytes
+public interface BodyFilter {
+    void filter(byte[] data, int offset, int length, OutputStream out) throws IOException;
+
+    // Called once after the last chunk so buffered input can be written out
+    void finish(OutputStream out) throws IOException;
+}
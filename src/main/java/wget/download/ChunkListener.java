@@ -0,0 +1,7 @@
+package wget.download;
+
+// Sees each chunk of a response body as FileManager saves it, so callers can inspect the body without reading the file back
+@FunctionalInterface
+public interface ChunkListener {
+    void onChunk(byte[] data, int offset, int length);
+}
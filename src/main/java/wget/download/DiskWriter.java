@@ -0,0 +1,346 @@
+package wget.download;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import wget.utils.BufferPool;
+
+// The disk side of a download, off the thread that reads the socket.
+//
+// With --write-behind a download fills a buffer of its own and hands it to the writer thread once
+// full, which writes it while the next is filling; the socket and the disk then work at the same
+// time. At most MAX_QUEUED full buffers wait for the writer across all downloads, and a download
+// only waits when handing one over finds them all taken, i.e. when the disk is the slower of the
+// two. However many downloads run, each keeps reading its socket until it has a full buffer to
+// hand over. Memory is MAX_QUEUED buffers plus the one each download is filling, all from BufferPool.
+//
+// With --fsync finished files are flushed to stable storage by the sync thread in batches: every
+// file handed over while a batch is being flushed joins the next one. A batch's files are forced
+// at the same time, so the device gets them together, and then each directory holding one of them
+// is synced once, so a new or renamed file keeps its name after a crash. A mirror does not wait
+// for its files; it records each as saved once its batch is done (see WebsiteMirror).
+public class DiskWriter {
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_QUEUED = 32;
+
+    // Set once from the command line; null writes inline
+    private static volatile DiskWriter writeBehind;
+    private static volatile Syncer syncer;
+
+    // A permit per full buffer handed over and not yet written
+    private final Semaphore queued = new Semaphore(MAX_QUEUED);
+    private final BlockingQueue<Write> writes = new LinkedBlockingQueue<>();
+
+    private static final class Write {
+        final Sink sink;
+        final ByteBuffer buffer;
+        final long position;
+
+        Write(Sink sink, ByteBuffer buffer, long position) {
+            this.sink = sink;
+            this.buffer = buffer;
+            this.position = position;
+        }
+    }
+
+    DiskWriter() {
+        Thread thread = new Thread(this::run, "wget-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static void configure(boolean writeBehind, boolean fsync) {
+        if (writeBehind && DiskWriter.writeBehind == null) {
+            DiskWriter.writeBehind = new DiskWriter();
+        }
+        if (fsync && syncer == null) {
+            syncer = new Syncer();
+        }
+    }
+
+    public static boolean fsync() {
+        return syncer != null;
+    }
+
+    // A sink writing channel from position on, or null when downloads write inline
+    static Sink open(FileChannel channel, long position) {
+        DiskWriter writer = writeBehind;
+        return writer != null ? writer.sink(channel, position) : null;
+    }
+
+    Sink sink(FileChannel channel, long position) {
+        return new Sink(channel, position);
+    }
+
+    // Completes once file and its name are on stable storage, right away without --fsync. The file
+    // may be closed meanwhile, but must be at its final path: that is the name whose directory is synced.
+    public static CompletableFuture<Void> sync(Path file) {
+        Syncer current = syncer;
+        return current != null ? current.add(file) : CompletableFuture.completedFuture(null);
+    }
+
+    // sync() for callers that have nothing else to do meanwhile
+    public static void syncNow(Path file) throws IOException {
+        try {
+            sync(file).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                    : new IOException("Could not sync " + file, e.getCause());
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Write write;
+            try {
+                write = writes.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (write.buffer == null) {
+                // Everything the sink queued before its end marker has been written
+                write.sink.drained.complete(null);
+                continue;
+            }
+            Sink sink = write.sink;
+            ByteBuffer buffer = write.buffer;
+            if (sink.failure == null) {
+                try {
+                    long position = write.position;
+                    while (buffer.hasRemaining()) {
+                        position += sink.channel.write(buffer, position);
+                    }
+                    sink.written.set(position);
+                } catch (IOException e) {
+                    sink.failure = e;
+                }
+            }
+            BufferPool.release(buffer);
+            queued.release();
+        }
+    }
+
+    // One file's buffers on their way through the writer. Used by one download thread.
+    final class Sink implements Closeable {
+        private final FileChannel channel;
+        // Where the next submitted buffer goes
+        private long position;
+        private final AtomicLong written;
+        private final CompletableFuture<Void> drained = new CompletableFuture<>();
+        private volatile IOException failure;
+        private ByteBuffer buffer;
+        private OutputStream stream;
+        private boolean closed;
+
+        private Sink(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+            this.written = new AtomicLong(position);
+        }
+
+        // The buffer to fill; never waits
+        ByteBuffer buffer() {
+            if (buffer == null) {
+                buffer = BufferPool.acquire(BUFFER_SIZE);
+            }
+            return buffer;
+        }
+
+        // Queues what the buffer holds, waiting while MAX_QUEUED buffers are ahead of it; the next
+        // buffer() call starts a new one
+        void submit() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            if (buffer == null) {
+                return;
+            }
+            if (buffer.position() == 0) {
+                return;
+            }
+            try {
+                queued.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Download interrupted", e);
+            }
+            buffer.flip();
+            long at = position;
+            position += buffer.remaining();
+            writes.add(new Write(this, buffer, at));
+            buffer = null;
+        }
+
+        // Bytes known to be in the file, for the journal; behind what was submitted by the writes
+        // still queued
+        long written() {
+            return written.get();
+        }
+
+        // For bodies written piecemeal, as a BodyFilter writes them
+        OutputStream stream() {
+            if (stream == null) {
+                stream = new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        ByteBuffer target = buffer();
+                        target.put((byte) b);
+                        if (!target.hasRemaining()) {
+                            submit();
+                        }
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        while (len > 0) {
+                            ByteBuffer target = buffer();
+                            int count = Math.min(len, target.remaining());
+                            target.put(b, off, count);
+                            off += count;
+                            len -= count;
+                            if (!target.hasRemaining()) {
+                                submit();
+                            }
+                        }
+                    }
+                };
+            }
+            return stream;
+        }
+
+        // Waits for every queued write; the channel stays open for its owner to close
+        void finish() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            IOException unsubmitted = null;
+            try {
+                submit();
+            } catch (IOException e) {
+                // Reported below, once the queue has drained
+                unsubmitted = e;
+            } finally {
+                BufferPool.release(buffer);
+                buffer = null;
+                writes.add(new Write(this, null, position));
+                drained.join();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (unsubmitted != null) {
+                throw unsubmitted;
+            }
+        }
+
+        // finish() for a download that ends early, so its buffer goes back to the pool
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+    }
+
+    // Group commit: every file waiting is forced in parallel, then every directory they are in once,
+    // and the results are handed out together
+    private static final class Syncer {
+        private final BlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+
+        private static final class Pending {
+            final Path file;
+            final CompletableFuture<Void> done = new CompletableFuture<>();
+            IOException failure;
+
+            Pending(Path file) {
+                this.file = file;
+            }
+        }
+
+        Syncer() {
+            Thread thread = new Thread(this::run, "wget-sync");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        CompletableFuture<Void> add(Path file) {
+            Pending entry = new Pending(file);
+            pending.add(entry);
+            return entry.done;
+        }
+
+        private void run() {
+            List<Pending> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(pending.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                pending.drainTo(batch);
+                batch.parallelStream().forEach(entry -> {
+                    try (FileChannel channel = FileChannel.open(entry.file, StandardOpenOption.WRITE)) {
+                        channel.force(false);
+                    } catch (IOException e) {
+                        entry.failure = e;
+                    }
+                });
+
+                List<Path> directories = batch.stream().filter(entry -> entry.failure == null)
+                        .map(entry -> directoryOf(entry.file)).distinct().collect(Collectors.toList());
+                Map<Path, IOException> failedDirectories = new ConcurrentHashMap<>();
+                directories.parallelStream().forEach(directory -> {
+                    try {
+                        syncDirectory(directory);
+                    } catch (IOException e) {
+                        failedDirectories.put(directory, e);
+                    }
+                });
+
+                for (Pending entry : batch) {
+                    IOException failure = entry.failure != null ? entry.failure
+                            : failedDirectories.get(directoryOf(entry.file));
+                    if (failure == null) {
+                        entry.done.complete(null);
+                    } else {
+                        entry.done.completeExceptionally(failure);
+                    }
+                }
+                batch.clear();
+            }
+        }
+
+        private static Path directoryOf(Path file) {
+            return file.toAbsolutePath().getParent();
+        }
+
+        private static void syncDirectory(Path directory) throws IOException {
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(directory, StandardOpenOption.READ);
+            } catch (IOException e) {
+                // Not every platform opens a directory (Windows does not); there a name is as durable
+                // as the filesystem makes it
+                return;
+            }
+            try (channel) {
+                channel.force(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package wget.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class DownloadJournal {
+    private static final String SUFFIX = ".wget-journal";
+
+    private final Path journalPath;
+    private final String url;
+    private final String etag;
+    private final String lastModified;
+    private final long contentLength;
+    private final long[] starts;
+    private final long[] ends;
+    private final AtomicLongArray committed;
+
+    private DownloadJournal(String filePath, String url, String etag, String lastModified, long contentLength,
+            long[] starts, long[] ends, long[] committed) {
+        this.journalPath = Paths.get(filePath + SUFFIX);
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentLength = contentLength;
+        this.starts = starts;
+        this.ends = ends;
+        this.committed = new AtomicLongArray(committed);
+    }
+
+    // A journal for a single stream that has already written `offset` bytes; contentLength may be -1
+    public static DownloadJournal forStream(String filePath, String url, HttpURLConnection conn,
+            long contentLength, long offset) {
+        return new DownloadJournal(filePath, url, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"),
+                contentLength, new long[] { 0 }, new long[] { contentLength - 1 }, new long[] { offset });
+    }
+
+    public static DownloadJournal forSegments(String filePath, String url, HttpURLConnection probe,
+            long contentLength, int segments) {
+        long[] starts = new long[segments];
+        long[] ends = new long[segments];
+        long segmentSize = contentLength / segments;
+        for (int i = 0; i < segments; i++) {
+            starts[i] = i * segmentSize;
+            ends[i] = (i == segments - 1) ? contentLength - 1 : starts[i] + segmentSize - 1;
+        }
+        return new DownloadJournal(filePath, url, probe.getHeaderField("ETag"), probe.getHeaderField("Last-Modified"),
+                contentLength, starts, ends, starts.clone());
+    }
+
+    public static DownloadJournal load(String filePath) {
+        Path journalPath = Paths.get(filePath + SUFFIX);
+        if (!Files.exists(journalPath)) {
+            return null;
+        }
+
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(journalPath)) {
+            props.load(in);
+
+            int segments = Integer.parseInt(props.getProperty("segments"));
+            long[] starts = new long[segments];
+            long[] ends = new long[segments];
+            long[] committed = new long[segments];
+            for (int i = 0; i < segments; i++) {
+                String[] parts = props.getProperty("segment." + i).split(",");
+                starts[i] = Long.parseLong(parts[0]);
+                ends[i] = Long.parseLong(parts[1]);
+                committed[i] = Long.parseLong(parts[2]);
+            }
+
+            return new DownloadJournal(filePath, props.getProperty("url"), props.getProperty("etag"),
+                    props.getProperty("lastModified"), Long.parseLong(props.getProperty("contentLength")),
+                    starts, ends, committed);
+        } catch (IOException | RuntimeException e) {
+            System.err.printf("Warning: ignoring unreadable journal %s: %s%n", journalPath, e.getMessage());
+            return null;
+        }
+    }
+
+    // True when the remote resource still looks like the one this journal was written for
+    public boolean matches(String url, HttpURLConnection probe, long contentLength) {
+        if (!this.url.equals(url) || this.contentLength != contentLength) {
+            return false;
+        }
+        String remoteEtag = probe.getHeaderField("ETag");
+        if (etag != null && remoteEtag != null) {
+            return etag.equals(remoteEtag);
+        }
+        String remoteLastModified = probe.getHeaderField("Last-Modified");
+        return lastModified != null && lastModified.equals(remoteLastModified);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    // Value for If-Range, so a changed resource is sent whole instead of spliced onto stale bytes
+    public String getValidator() {
+        return etag != null ? etag : lastModified;
+    }
+
+    public int getSegmentCount() {
+        return starts.length;
+    }
+
+    public long getStart(int segment) {
+        return starts[segment];
+    }
+
+    public long getEnd(int segment) {
+        return ends[segment];
+    }
+
+    public long getCommitted(int segment) {
+        return committed.get(segment);
+    }
+
+    public long getCommittedBytes() {
+        long total = 0;
+        for (int i = 0; i < starts.length; i++) {
+            total += committed.get(i) - starts[i];
+        }
+        return total;
+    }
+
+    public void commit(int segment, long offset) {
+        committed.set(segment, offset);
+    }
+
+    public void flush() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("url", url);
+        if (etag != null) {
+            props.setProperty("etag", etag);
+        }
+        if (lastModified != null) {
+            props.setProperty("lastModified", lastModified);
+        }
+        props.setProperty("contentLength", String.valueOf(contentLength));
+        props.setProperty("segments", String.valueOf(starts.length));
+        for (int i = 0; i < starts.length; i++) {
+            props.setProperty("segment." + i, starts[i] + "," + ends[i] + "," + committed.get(i));
+        }
+
+        // Write beside the journal and rename so a crash never leaves a half-written journal
+        Path tmp = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            props.store(out, null);
+        }
+        Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(journalPath);
+    }
+}
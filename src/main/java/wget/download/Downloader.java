@@ -1,9 +1,12 @@
 package wget.download;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.nio.file.Paths;
 
 import wget.cli.OutputFormatter;
+import wget.utils.Metrics;
 import wget.utils.NetworkUtils;
 
 public class Downloader {
@@ -13,7 +16,12 @@ public class Downloader {
     private final String method;
     private final Boolean inBackground;
     private final Boolean inAsync;
+    private final int segments;
+    private final boolean resume;
     private final RateLimiter rateLimiter;
+    // Set once a try has failed, so the next one continues from what its journal says was written
+    private boolean retrying;
+    private long bytesReceived;
 
     private final OutputFormatter formatter;
 
@@ -27,19 +35,68 @@ public class Downloader {
         this.rateLimiter = rateLimiter;
         this.inAsync = this.formatter.parser.hasOption("i");
         this.inBackground = this.formatter.parser.hasOption("background");
+        this.segments = this.formatter.parser.getIntOptionValue("segments", 1);
+        this.resume = this.formatter.parser.hasOption("c");
     }
 
     public void download() throws IOException {
         formatter.printStart(fileName);
 
-        HttpURLConnection conn = NetworkUtils.createConnection(url, method);
+        if (segments > 1 && downloadSegmented()) {
+            DiskWriter.syncNow(Paths.get(new FileManager(fileName, path).getFilePath()));
+            formatter.printEnd(fileName, url);
+            return;
+        }
 
-        formatter.printConnectionInfo(conn);
+        FileManager fileManager = new FileManager(fileName, path);
+        String filePath = fileManager.getFilePath();
+        long offset = resume || retrying ? resumeOffset(filePath, resume) : 0;
 
-        int contentLength = conn.getContentLength();
-        String contentType = conn.getContentType();
+        HttpURLConnection conn = open(filePath, offset);
+        Metrics.Request timing = null;
+        try {
+            timing = Metrics.startRequest(conn, url);
+            int status = conn.getResponseCode();
+            if (offset > 0 && status == 416) {
+                NetworkUtils.release(conn);
+                if (timing != null) {
+                    timing.finish(0, "file", filePath);
+                }
+                System.out.println("The file is already fully retrieved; nothing to do.");
+                formatter.printEnd(fileName, url);
+                return;
+            }
+            if (offset > 0 && status == HttpURLConnection.HTTP_OK) {
+                System.out.println("Server did not resume the transfer, restarting from the beginning.");
+                offset = 0;
+            }
+            if (offset > 0 && status == HttpURLConnection.HTTP_PARTIAL
+                    && NetworkUtils.contentRangeStart(conn) != offset) {
+                // Appending a range other than the one asked for would splice the wrong bytes into the file
+                NetworkUtils.release(conn);
+                if (timing != null) {
+                    timing.finish(0, "file", filePath);
+                }
+                System.out.println("Server resumed at a different offset, restarting from the beginning.");
+                offset = 0;
+                conn = open(filePath, 0);
+                timing = Metrics.startRequest(conn, url);
+            }
 
-        FileManager fileManager = new FileManager(fileName, path);
+            formatter.printConnectionInfo(conn);
+        } catch (IOException e) {
+            NetworkUtils.release(conn);
+            if (timing != null) {
+                timing.failed(e);
+            }
+            throw e;
+        }
+
+        long contentLength = conn.getContentLengthLong();
+        String contentType = conn.getContentType();
+        // A compressed body's Content-Length counts wire bytes, not the bytes that end up on disk
+        long totalLength = contentLength < 0 || NetworkUtils.isEncoded(conn) ? -1 : offset + contentLength;
+        DownloadJournal journal = DownloadJournal.forStream(filePath, url, conn, totalLength, offset);
 
         if (!this.inAsync) {
             formatter.printContentSize(contentLength, contentType);
@@ -48,8 +105,112 @@ public class Downloader {
             System.out.print(message);
         }
 
-        fileManager.save(conn, contentLength, this.inBackground, this.inAsync, this.rateLimiter);
+        if (offset > 0) {
+            System.out.printf("Resuming at byte %d%n", offset);
+        }
+
+        try {
+            bytesReceived = fileManager.save(conn, contentLength, this.inBackground, this.inAsync, this.rateLimiter,
+                    offset, journal);
+        } catch (IOException | RuntimeException e) {
+            if (timing != null) {
+                timing.failed(e);
+            }
+            throw e;
+        }
+        if (timing != null) {
+            timing.finish(bytesReceived, "file", filePath);
+        }
+        // Only with --fsync; a download counts as done once it would survive a crash
+        DiskWriter.syncNow(Paths.get(filePath));
 
         formatter.printEnd(fileName, url);
     }
+
+    // A request for the file from offset on, validated against the previous attempt's journal
+    private HttpURLConnection open(String filePath, long offset) throws IOException {
+        HttpURLConnection conn = NetworkUtils.createConnection(url, method);
+        if (offset > 0) {
+            conn.setRequestProperty("Range", "bytes=" + offset + "-");
+            DownloadJournal previous = DownloadJournal.load(filePath);
+            if (previous != null && previous.getValidator() != null) {
+                conn.setRequestProperty("If-Range", previous.getValidator());
+            }
+        } else {
+            NetworkUtils.acceptCompressed(conn);
+        }
+        return conn;
+    }
+
+    // Body bytes transferred by the last download(), for schedulers that measure throughput
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    // The next download() is a retry of a failed one
+    public void prepareRetry() {
+        retrying = true;
+    }
+
+    // Bytes of a previous single-stream attempt that can be kept, trusting the journal over the file size.
+    // Without a journal only -c trusts the file: a retry's file may be a kept compressed body.
+    private long resumeOffset(String filePath, boolean trustFileSize) {
+        File file = new File(filePath);
+        if (!file.exists()) {
+            return 0;
+        }
+
+        DownloadJournal journal = DownloadJournal.load(filePath);
+        if (journal == null) {
+            return trustFileSize ? file.length() : 0;
+        }
+        if (!journal.getUrl().equals(url) || journal.getSegmentCount() != 1) {
+            return 0;
+        }
+        return Math.min(journal.getCommitted(0), file.length());
+    }
+
+    private boolean downloadSegmented() throws IOException {
+        HttpURLConnection probe = NetworkUtils.createConnection(url, "HEAD");
+        try {
+            if (!SegmentedDownload.supportsRanges(probe)) {
+                System.out.println("Server does not support byte ranges, using a single connection.");
+                return false;
+            }
+
+            long contentLength = probe.getContentLengthLong();
+            int effectiveSegments = SegmentedDownload.effectiveSegments(contentLength, segments);
+            if (effectiveSegments < 2) {
+                return false;
+            }
+
+            formatter.printConnectionInfo(probe);
+
+            String filePath = new FileManager(fileName, path).getFilePath();
+
+            DownloadJournal journal = resume || retrying ? DownloadJournal.load(filePath) : null;
+            if (journal != null && (journal.getSegmentCount() < 2 || !journal.matches(url, probe, contentLength))) {
+                journal = null;
+            }
+            if (journal == null) {
+                journal = DownloadJournal.forSegments(filePath, url, probe, contentLength, effectiveSegments);
+            } else {
+                System.out.printf("Resuming %d segments with %d bytes already retrieved%n",
+                        journal.getSegmentCount(), journal.getCommittedBytes());
+            }
+
+            if (!this.inAsync) {
+                formatter.printContentSize(contentLength, probe.getContentType());
+                System.out.printf("Saving file to: %s (%d segments)%n", filePath, journal.getSegmentCount());
+            }
+
+            long alreadyRetrieved = journal.getCommittedBytes();
+            new SegmentedDownload(url, filePath, contentLength, journal)
+                    .run(!this.inBackground && !this.inAsync, this.rateLimiter);
+            bytesReceived = contentLength - alreadyRetrieved;
+            return true;
+        } finally {
+            NetworkUtils.release(probe);
+        }
+    }
 }
@@ -1,62 +1,290 @@
 package wget.download;
 
-import java.io.FileOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 import wget.cli.ArgumentParser;
-import wget.cli.OutputFormatter;
+import wget.cli.ProgressRenderer;
+import wget.utils.BufferPool;
+import wget.utils.CountingInputStream;
 import wget.utils.FileUtils;
-import wget.utils.TerminalUtils;
+import wget.utils.Metrics;
+import wget.utils.NetworkUtils;
 
 public class FileManager {
-    private static final int BUFFER_SIZE = 8192;
+    private static final int MIN_BUFFER_SIZE = 8192;
+    private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+    // How much progress may be lost on a crash before the journal is rewritten
+    private static final long JOURNAL_INTERVAL = 1024 * 1024;
     private final String fileName;
     private final String path;
+    private final ChunkListener listener;
+    private final BodyFilter filter;
+    // False when the body is parsed as it arrives, so it is decoded even under --keep-compressed
+    private final boolean mayKeepEncoding;
 
     public FileManager(String fileName, String path) {
+        this(fileName, path, null);
+    }
+
+    public FileManager(String fileName, String path, ChunkListener listener) {
+        this(fileName, path, listener, null);
+    }
+
+    // The listener sees the body as received; the filter decides what is written to disk
+    public FileManager(String fileName, String path, ChunkListener listener, BodyFilter filter) {
+        this(fileName, path, listener, filter, true);
+    }
+
+    public FileManager(String fileName, String path, ChunkListener listener, BodyFilter filter,
+            boolean mayKeepEncoding) {
         if (fileName == null || fileName.trim().isEmpty()) {
             throw new IllegalArgumentException("File name cannot be null or empty");
         }
 
         this.fileName = fileName;
         this.path = FileUtils.normalizePath(path);
+        this.listener = listener;
+        this.filter = filter;
+        this.mayKeepEncoding = mayKeepEncoding;
     }
 
-    public void save(HttpURLConnection conn, int contentLength, boolean inBackground, boolean inAsync,
+    public long save(HttpURLConnection conn, long contentLength, boolean inBackground, boolean inAsync,
             RateLimiter rateLimiter) throws IOException {
-        try (InputStream in = conn.getInputStream(); FileOutputStream out = new FileOutputStream(path + fileName)) {
+        return save(conn, contentLength, inBackground, inAsync, rateLimiter, 0, null);
+    }
 
-            byte[] buffer = new byte[BUFFER_SIZE];
+    // Returns the number of body bytes received by this call. A compressed body is decoded on the
+    // fly unless --keep-compressed keeps it: listener, filter and disk see the same bytes, while
+    // progress, the rate limiter and the return value count what crossed the wire.
+    public long save(HttpURLConnection conn, long contentLength, boolean inBackground, boolean inAsync,
+            RateLimiter rateLimiter, long offset, DownloadJournal journal) throws IOException {
+        if (filter != null && (offset > 0 || journal != null)) {
+            // Filtered output no longer lines up with response offsets, so it cannot be resumed
+            throw new IllegalArgumentException("A filtered body cannot be resumed");
+        }
+
+        boolean keepEncoding = mayKeepEncoding && NetworkUtils.keepsEncoding(conn);
+        if (journal != null && keepEncoding) {
+            // Resume ranges address the identity body, which a kept compressed file does not hold
+            journal.delete();
+            journal = null;
+        }
+
+        long downloaded = offset;
+        long written = offset;
+        long wireRead = 0;
+        boolean completed = false;
+        long total = contentLength < 0 ? contentLength : offset + contentLength;
+        ProgressRenderer.Transfer progress = startProgress(inBackground, inAsync, total, offset);
+        // The read buffer when it came from BufferPool rather than from the write-behind sink
+        ByteBuffer pooled = null;
+
+        try (CountingInputStream wire = new CountingInputStream(conn.getInputStream());
+                InputStream in = keepEncoding ? wire : NetworkUtils.decodedBody(conn, wire);
+                FileChannel out = openChannel(offset);
+                DiskWriter.Sink sink = DiskWriter.open(out, offset);
+                // Filtered bodies are written piecemeal by the filter, so batching moves to a buffered stream
+                OutputStream filtered = filter == null ? null
+                        : sink != null ? sink.stream()
+                        : new ChannelOutputStream(out, initialBufferSize(contentLength))) {
+
+            // Reads land in one reusable buffer that is flushed to the channel only when full,
+            // so a large body costs a few big writes instead of one syscall per 8 KB. With
+            // --write-behind a full buffer goes to the writer thread and reading moves on to the next.
+            ByteBuffer buffer;
+            if (sink != null && filter == null) {
+                buffer = sink.buffer();
+            } else {
+                pooled = BufferPool.acquire(initialBufferSize(contentLength));
+                buffer = pooled;
+            }
             int bytesRead;
-            long downloaded = 0;
-            long startNano = System.nanoTime();
+            long lastJournaled = offset;
 
-            final int barWidth = TerminalUtils.getTerminalWidth() - 65;
+            while ((bytesRead = in.read(buffer.array(), buffer.position(), buffer.remaining())) != -1) {
+                if (listener != null) {
+                    listener.onChunk(buffer.array(), buffer.position(), bytesRead);
+                }
+                // A decoder reads ahead, so this is uneven per chunk but exact in total
+                long wireBytes = wire.getCount() - wireRead;
+                wireRead += wireBytes;
+                downloaded += wireBytes;
 
-            while ((bytesRead = in.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
-                downloaded += bytesRead;
+                if (filtered != null) {
+                    filter.filter(buffer.array(), 0, bytesRead, filtered);
+                } else {
+                    buffer.position(buffer.position() + bytesRead);
+                    if (!buffer.hasRemaining()) {
+                        if (sink != null) {
+                            sink.submit();
+                            buffer = sink.buffer();
+                        } else {
+                            written += drain(buffer, out);
+                            if (buffer.capacity() < MAX_BUFFER_SIZE) {
+                                // The body keeps filling the buffer, so it is large: read bigger batches
+                                pooled = BufferPool.acquire(buffer.capacity() * 2);
+                                BufferPool.release(buffer);
+                                buffer = pooled;
+                            }
+                        }
+                    }
+                }
+                if (sink != null) {
+                    // Only what the writer has finished, so the journal never claims bytes still queued
+                    written = sink.written();
+                }
 
-                if (rateLimiter != null) {
+                if (journal != null && written - lastJournaled >= JOURNAL_INTERVAL) {
+                    journal.commit(0, written);
+                    journal.flush();
+                    lastJournaled = written;
+                }
+
+                if (rateLimiter != null && wireBytes > 0) {
                     try {
-                        rateLimiter.throttle(bytesRead);
+                        rateLimiter.throttle((int) wireBytes);
                     } catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
                         throw new IOException("Download interrupted", e);
                     }
                 }
 
-                if (!inBackground && !inAsync) {
-                    OutputFormatter.printProgressBar(downloaded, contentLength, barWidth, startNano);
+                if (progress != null) {
+                    progress.add(wireBytes);
+                }
+            }
+            if (filtered != null) {
+                filter.finish(filtered);
+                filtered.flush();
+            } else if (sink == null) {
+                written += drain(buffer, out);
+            }
+            if (sink != null) {
+                // Waits for the writer, so the file is whole when save returns
+                sink.finish();
+                written = sink.written();
+            }
+            // The JDK ends a fixed-length body quietly when the server closes early; a compressed one
+            // fails in its decoder instead
+            if (contentLength >= 0 && wireRead < contentLength && !NetworkUtils.isEncoded(conn)) {
+                throw new EOFException("Connection closed after " + wireRead + " of " + contentLength + " bytes");
+            }
+            completed = true;
+        } finally {
+            BufferPool.release(pooled);
+            Metrics.received(downloaded - offset);
+            if (progress != null) {
+                progress.finish();
+            }
+            if (journal != null) {
+                if (completed) {
+                    journal.delete();
+                } else {
+                    journal.commit(0, written);
+                    journal.flush();
                 }
             }
+        }
+        return downloaded - offset;
+    }
 
-            if (!inBackground && !inAsync) {
-                System.out.print("\n\n");
+    // Progress is drawn by its own thread; this download only feeds it byte counts
+    private ProgressRenderer.Transfer startProgress(boolean inBackground, boolean inAsync, long total, long offset) {
+        if (inBackground) {
+            return null;
+        }
+        ProgressRenderer renderer = inAsync ? ProgressRenderer.shared() : ProgressRenderer.singleLine();
+        return renderer != null ? renderer.begin(fileName, total, offset) : null;
+    }
+
+    private FileChannel openChannel(long offset) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path + fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drop anything past the last committed byte before appending the rest
+        channel.truncate(offset);
+        channel.position(offset);
+        return channel;
+    }
+
+    private static int drain(ByteBuffer buffer, FileChannel out) throws IOException {
+        buffer.flip();
+        int count = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+        return count;
+    }
+
+    // What BufferedOutputStream does, with its buffer taken from the pool and returned on close
+    private static final class ChannelOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private ByteBuffer buffer;
+
+        ChannelOutputStream(FileChannel channel, int size) {
+            this.channel = channel;
+            this.buffer = BufferPool.acquire(size);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                drain(buffer, channel);
             }
+            buffer.put((byte) b);
         }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > buffer.remaining()) {
+                drain(buffer, channel);
+            }
+            if (len > buffer.remaining()) {
+                ByteBuffer src = ByteBuffer.wrap(b, off, len);
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+                return;
+            }
+            buffer.put(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain(buffer, channel);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer == null) {
+                return;
+            }
+            try {
+                drain(buffer, channel);
+            } finally {
+                BufferPool.release(buffer);
+                buffer = null;
+            }
+        }
+    }
+
+    private static int initialBufferSize(long contentLength) {
+        if (contentLength <= MIN_BUFFER_SIZE) {
+            return MIN_BUFFER_SIZE;
+        }
+        return Math.min(MAX_BUFFER_SIZE, Integer.highestOneBit((int) Math.min(contentLength, MAX_BUFFER_SIZE)));
+    }
+
+    public String getFilePath() {
+        return path + fileName;
     }
 
     public static String determineFileName(ArgumentParser parser, String url) {
@@ -0,0 +1,162 @@
+package wget.download;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A circuit breaker per host, so an origin that has stopped answering does not hold every worker
+// in connect timeouts and retries. After FAILURE_THRESHOLD failures in a row the host is paused
+// (open); when the pause is over one request is let through as a probe (half-open). A probe that
+// succeeds closes the breaker, one that fails pauses the host again for twice as long, and after
+// maxOpenings failed pauses in a row the host is given up for the rest of the run.
+//
+// Only failures worth retrying count (see RetryPolicy); a 404 is an answer, and closes the breaker
+// like a success. A closed breaker is dropped, so only hosts that are failing or given up keep an
+// entry. Locks are ReentrantLocks so virtual threads do not pin their carriers here.
+public class HostCircuitBreakers {
+    public static final int FAILURE_THRESHOLD = 5;
+
+    private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long MAX_OPEN_NANOS = TimeUnit.SECONDS.toNanos(60);
+    // How long other requests wait while the probe is out
+    private static final long PROBE_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int maxOpenings;
+    private final long openNanos;
+    private final long maxOpenNanos;
+    private final Map<String, Breaker> hosts = new ConcurrentHashMap<>();
+
+    private static final class Breaker {
+        final ReentrantLock lock = new ReentrantLock();
+        int failures;
+        int openings;
+        long openUntil;
+        boolean open;
+        boolean probing;
+        boolean givenUp;
+        // No longer in hosts; a failure that finds it so starts over with a new one
+        boolean dropped;
+    }
+
+    public HostCircuitBreakers(int maxOpenings) {
+        this(maxOpenings, OPEN_NANOS, MAX_OPEN_NANOS);
+    }
+
+    // Pauses start at openNanos and double up to maxOpenNanos
+    HostCircuitBreakers(int maxOpenings, long openNanos, long maxOpenNanos) {
+        this.maxOpenings = Math.max(1, maxOpenings);
+        this.openNanos = openNanos;
+        this.maxOpenNanos = maxOpenNanos;
+    }
+
+    // 0 when a request to url's host may go now, the nanoseconds to wait when its breaker is open
+    // or its probe is out, or -1 once the host has been given up. After a 0 the caller must report
+    // the outcome through succeeded or failed.
+    public long admit(String url) {
+        Breaker breaker = hosts.get(hostOf(url));
+        if (breaker == null) {
+            return 0;
+        }
+        breaker.lock.lock();
+        try {
+            if (breaker.givenUp) {
+                return -1;
+            }
+            if (!breaker.open) {
+                return 0;
+            }
+            if (breaker.probing) {
+                return PROBE_WAIT_NANOS;
+            }
+            long wait = breaker.openUntil - System.nanoTime();
+            if (wait > 0) {
+                return wait;
+            }
+            breaker.probing = true;
+            return 0;
+        } finally {
+            breaker.lock.unlock();
+        }
+    }
+
+    public void succeeded(String url) {
+        String host = hostOf(url);
+        Breaker breaker = hosts.get(host);
+        if (breaker == null) {
+            return;
+        }
+        breaker.lock.lock();
+        try {
+            if (breaker.givenUp || breaker.dropped) {
+                return;
+            }
+            breaker.open = false;
+            breaker.probing = false;
+            // Closed with nothing counted is what a missing entry means
+            breaker.dropped = true;
+            hosts.remove(host, breaker);
+        } finally {
+            breaker.lock.unlock();
+        }
+    }
+
+    // Returns the pause when this failure opened the breaker, 0 otherwise
+    public long failed(String url) {
+        String host = hostOf(url);
+        while (true) {
+            Breaker breaker = hosts.computeIfAbsent(host, h -> new Breaker());
+            breaker.lock.lock();
+            try {
+                if (!breaker.dropped) {
+                    return failed(host, breaker);
+                }
+            } finally {
+                breaker.lock.unlock();
+            }
+        }
+    }
+
+    // Hosts that are failing or given up
+    int hostCount() {
+        return hosts.size();
+    }
+
+    // Caller holds the breaker's lock
+    private long failed(String host, Breaker breaker) {
+        if (breaker.givenUp) {
+            return 0;
+        }
+        if (breaker.open && !breaker.probing) {
+            // Started before the breaker opened; the pause already accounts for it
+            return 0;
+        }
+        if (!breaker.open && ++breaker.failures < FAILURE_THRESHOLD) {
+            return 0;
+        }
+
+        breaker.probing = false;
+        if (++breaker.openings > maxOpenings) {
+            breaker.givenUp = true;
+            System.err.printf("Warning: %s is still failing after %d pauses; giving up on it%n",
+                    host, maxOpenings);
+            return 0;
+        }
+        long pause = Math.min(maxOpenNanos, openNanos << (breaker.openings - 1));
+        breaker.open = true;
+        breaker.openUntil = System.nanoTime() + pause;
+        System.err.printf("Warning: %s is failing; pausing requests to it for %ds%n",
+                host, TimeUnit.NANOSECONDS.toSeconds(pause));
+        return pause;
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String host = URI.create(url.trim()).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package wget.download;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Hands out the limiter a download should use: one bucket per host (--host-rate-limit) chained
+// to the shared global bucket (--rate-limit), so both caps hold however many threads are running.
+//
+// A host's bucket lives as long as some download, queued or running, holds it. Once none does it
+// is left to the GC and its entry dropped, so a list spanning millions of hosts does not keep a
+// bucket per host. Nothing is lost: throttle() sleeps off all but a few milliseconds of debt, and
+// a new bucket starts with no burst to spend.
+public class HostRateLimits {
+    private final RateLimiter global;
+    private final long hostBytesPerSecond;
+    private final Map<String, HostLimiter> hosts = new ConcurrentHashMap<>();
+    private final ReferenceQueue<RateLimiter> released = new ReferenceQueue<>();
+
+    private static final class HostLimiter extends WeakReference<RateLimiter> {
+        final String host;
+
+        HostLimiter(String host, RateLimiter limiter, ReferenceQueue<RateLimiter> queue) {
+            super(limiter, queue);
+            this.host = host;
+        }
+    }
+
+    public HostRateLimits(String globalRate, String hostRate) {
+        this.global = globalRate != null ? new RateLimiter(globalRate) : null;
+        this.hostBytesPerSecond = hostRate != null ? RateLimiter.parseRateLimit(hostRate) : 0;
+    }
+
+    // Null when no limit applies, which callers already treat as unthrottled
+    public RateLimiter forUrl(String url) {
+        if (hostBytesPerSecond <= 0) {
+            return global;
+        }
+        dropReleased();
+        String host = hostOf(url);
+        while (true) {
+            HostLimiter held = hosts.get(host);
+            RateLimiter limiter = held != null ? held.get() : null;
+            if (limiter != null) {
+                return limiter;
+            }
+            limiter = new RateLimiter(hostBytesPerSecond, global);
+            HostLimiter fresh = new HostLimiter(host, limiter, released);
+            if (held == null ? hosts.putIfAbsent(host, fresh) == null : hosts.replace(host, held, fresh)) {
+                return limiter;
+            }
+        }
+    }
+
+    // Hosts with a bucket some download still holds, or whose entry is yet to be dropped
+    int hostCount() {
+        dropReleased();
+        return hosts.size();
+    }
+
+    private void dropReleased() {
+        Reference<? extends RateLimiter> ref;
+        while ((ref = released.poll()) != null) {
+            HostLimiter limiter = (HostLimiter) ref;
+            hosts.remove(limiter.host, limiter);
+        }
+    }
+
+    public RateLimiter getGlobal() {
+        return global;
+    }
+
+    public long getHostBytesPerSecond() {
+        return hostBytesPerSecond;
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+}
@@ -1,17 +1,40 @@
 package wget.download;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+// Token bucket shared by any number of download threads. Instead of counting tokens it keeps the
+// virtual time at which everything granted so far has been paid for; each throttle() moves that
+// time forward with one CAS, and the bucket is full when it lies burst nanos or more in the past.
 public class RateLimiter {
+    // Debt below this is carried into the next chunk instead of slept off, so fast links do not
+    // put a thread to sleep for every 8 KB read
+    private static final long MIN_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long MIN_BURST_BYTES = 64 * 1024;
 
     private final long bytesPerSecond;
-    private long nextAllowedTime = System.nanoTime();
+    private final double nanosPerByte;
+    private final long burstNanos;
+    private final RateLimiter parent;
+    private final AtomicLong paidUntil = new AtomicLong(System.nanoTime());
 
     public RateLimiter(String rateLimitStr) {
-        this.bytesPerSecond = parseRateLimit(rateLimitStr);
+        this(parseRateLimit(rateLimitStr), null);
     }
 
-    private long parseRateLimit(String rateLimitStr) {
+    // A limiter whose traffic also counts against parent, e.g. one host under the global limit
+    public RateLimiter(long bytesPerSecond, RateLimiter parent) {
+        this(bytesPerSecond, Math.max(MIN_BURST_BYTES, bytesPerSecond / 8), parent);
+    }
+
+    public RateLimiter(long bytesPerSecond, long burstBytes, RateLimiter parent) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.nanosPerByte = bytesPerSecond > 0 ? 1e9 / bytesPerSecond : 0;
+        this.burstNanos = (long) (burstBytes * nanosPerByte);
+        this.parent = parent;
+    }
+
+    static long parseRateLimit(String rateLimitStr) {
         if (rateLimitStr == null || rateLimitStr.trim().isEmpty()) {
             throw new IllegalArgumentException("Rate limit cannot be null or empty");
         }
@@ -36,22 +59,34 @@ public class RateLimiter {
     }
 
     public void throttle(int bytesRead) throws InterruptedException {
-        if (bytesPerSecond <= 0) {
-            return;
-        }
+        long now = System.nanoTime();
+        long waitNanos = reserve(bytesRead, now);
 
-        long nanosPerByte = 1_000_000_000L / bytesPerSecond;
-        long waitTime = bytesRead * nanosPerByte;
+        if (waitNanos >= MIN_SLEEP_NANOS) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
 
-        nextAllowedTime += waitTime;
-        long now = System.nanoTime();
-        long sleepNanos = nextAllowedTime - now;
+    // Charges bytes to this bucket and its parents and returns how long the caller is behind the
+    // slowest of them; the charge stands either way, so unslept debt is paid by a later call
+    private long reserve(int bytes, long now) {
+        long waitNanos = 0;
+        if (bytesPerSecond > 0) {
+            long cost = (long) (bytes * nanosPerByte);
+            long previous;
+            long next;
+            do {
+                previous = paidUntil.get();
+                // Idle time refills the bucket, but never beyond its burst size
+                next = Math.max(previous, now - burstNanos) + cost;
+            } while (!paidUntil.compareAndSet(previous, next));
+            waitNanos = next - now;
+        }
 
-        if (sleepNanos > 0) {
-            TimeUnit.NANOSECONDS.sleep(sleepNanos);
-        } else {
-            nextAllowedTime = now;
+        if (parent != null) {
+            waitNanos = Math.max(waitNanos, parent.reserve(bytes, now));
         }
+        return waitNanos;
     }
 
     public long getBytesPerSecond() {
@@ -0,0 +1,86 @@
+package wget.download;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.UnknownHostException;
+import java.nio.file.FileSystemException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLHandshakeException;
+
+import wget.utils.HttpStatusException;
+
+// When a failed download is worth another try, and how long to wait first (--tries, --waitretry).
+// The wait doubles from one second per attempt up to the --waitretry cap and is drawn at random
+// from the upper half of that, so downloads that failed together do not all come back together.
+// A longer Retry-After from the server wins over the backoff.
+public class RetryPolicy {
+    public static final int DEFAULT_TRIES = 3;
+    public static final long DEFAULT_MAX_WAIT_SECONDS = 10;
+
+    private static final long BASE_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // A server asking us to stay away longer than this is treated as down for the run
+    private static final long MAX_RETRY_AFTER_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final int tries;
+    private final long maxWaitNanos;
+
+    public RetryPolicy() {
+        this(DEFAULT_TRIES, DEFAULT_MAX_WAIT_SECONDS);
+    }
+
+    // tries counts the first attempt, so 1 never retries
+    public RetryPolicy(int tries, long maxWaitSeconds) {
+        if (tries < 1) {
+            throw new IllegalArgumentException("Number of tries must be at least 1");
+        }
+        if (maxWaitSeconds < 0) {
+            throw new IllegalArgumentException("Retry wait cannot be negative");
+        }
+        this.tries = tries;
+        this.maxWaitNanos = TimeUnit.SECONDS.toNanos(maxWaitSeconds);
+    }
+
+    public int getTries() {
+        return tries;
+    }
+
+    // attempt is the one that just failed, counting from 1
+    public boolean shouldRetry(Exception e, int attempt) {
+        return attempt < tries && isRetryable(e) && retryAfterNanos(e) <= MAX_RETRY_AFTER_NANOS;
+    }
+
+    public long delayNanos(Exception e, int attempt) {
+        long backoff = Math.min(maxWaitNanos, BASE_WAIT_NANOS << Math.min(attempt - 1, 30));
+        long jittered = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        return Math.max(jittered, retryAfterNanos(e));
+    }
+
+    // Network trouble and "try later" statuses are retried. A wrong URL, an unknown host, a refused
+    // certificate, a definite status like 404 or a local file error would fail the same way again.
+    public static boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusException) {
+                return ((HttpStatusException) cause).isTransient();
+            }
+            if (cause instanceof UnknownHostException || cause instanceof MalformedURLException
+                    || cause instanceof ProtocolException || cause instanceof SSLHandshakeException
+                    || cause instanceof FileSystemException || cause instanceof InterruptedException
+                    || cause instanceof IllegalArgumentException) {
+                return false;
+            }
+        }
+        return e instanceof IOException;
+    }
+
+    private static long retryAfterNanos(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusException) {
+                return ((HttpStatusException) cause).getRetryAfterNanos();
+            }
+        }
+        return 0;
+    }
+}
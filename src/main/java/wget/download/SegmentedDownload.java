@@ -0,0 +1,184 @@
+package wget.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import wget.cli.ProgressRenderer;
+import wget.utils.BufferPool;
+import wget.utils.Metrics;
+import wget.utils.NetworkUtils;
+
+public class SegmentedDownload {
+    private static final int BUFFER_SIZE = 8192;
+    // How often the waiting thread writes the journal out
+    private static final long FLUSH_INTERVAL_MS = 200;
+
+    // Below this size per segment the extra handshakes cost more than they gain
+    public static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private final String url;
+    private final String filePath;
+    private final long contentLength;
+    private final DownloadJournal journal;
+
+    public SegmentedDownload(String url, String filePath, long contentLength, DownloadJournal journal) {
+        if (journal.getSegmentCount() < 2) {
+            throw new IllegalArgumentException("Segmented download needs at least 2 segments");
+        }
+
+        this.url = url;
+        this.filePath = filePath;
+        this.contentLength = contentLength;
+        this.journal = journal;
+    }
+
+    public static boolean supportsRanges(HttpURLConnection probe) throws IOException {
+        String acceptRanges = probe.getHeaderField("Accept-Ranges");
+        return probe.getResponseCode() == HttpURLConnection.HTTP_OK
+                && acceptRanges != null
+                && acceptRanges.trim().equalsIgnoreCase("bytes")
+                && probe.getContentLengthLong() > 0;
+    }
+
+    public static int effectiveSegments(long contentLength, int requested) {
+        long bySize = Math.max(1, contentLength / MIN_SEGMENT_SIZE);
+        return (int) Math.min(requested, bySize);
+    }
+
+    public void run(boolean showProgress, RateLimiter rateLimiter) throws IOException {
+        ProgressRenderer.Transfer progress = showProgress
+                ? ProgressRenderer.singleLine().begin(filePath, contentLength, journal.getCommittedBytes())
+                : null;
+        ExecutorService executor = Executors.newFixedThreadPool(journal.getSegmentCount());
+        boolean completed = false;
+
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "rw")) {
+            // Preallocate once so every segment can write straight to its own offset
+            file.setLength(contentLength);
+            FileChannel channel = file.getChannel();
+            journal.flush();
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < journal.getSegmentCount(); i++) {
+                int segment = i;
+                futures.add(executor.submit(() -> {
+                    fetchSegment(channel, segment, rateLimiter, progress);
+                    return null;
+                }));
+            }
+
+            awaitSegments(futures);
+            completed = true;
+        } finally {
+            executor.shutdownNow();
+            if (progress != null) {
+                progress.finish();
+            }
+            if (completed) {
+                journal.delete();
+            } else {
+                journal.flush();
+            }
+        }
+    }
+
+    private void awaitSegments(List<Future<?>> futures) throws IOException {
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    // The waiting thread owns the journal, so segment threads never block on its file
+                    journal.flush();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException("Segment failed: " + cause.getMessage(), cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Download interrupted", e);
+                }
+            }
+        }
+    }
+
+    private void fetchSegment(FileChannel channel, int segment, RateLimiter rateLimiter,
+            ProgressRenderer.Transfer progress)
+            throws IOException {
+        long start = journal.getCommitted(segment);
+        long end = journal.getEnd(segment);
+        if (start > end) {
+            return;
+        }
+
+        HttpURLConnection conn = NetworkUtils.createConnection(url, "GET");
+        conn.setRequestProperty("Range", "bytes=" + start + "-" + end);
+        if (journal.getValidator() != null) {
+            conn.setRequestProperty("If-Range", journal.getValidator());
+        }
+
+        Metrics.Request timing = Metrics.startRequest(conn, url);
+        int status = conn.getResponseCode();
+        if (status != HttpURLConnection.HTTP_PARTIAL) {
+            NetworkUtils.release(conn);
+            throw new IOException("Range request for bytes " + start + "-" + end + " failed. Status: " + status);
+        }
+
+        long position = start;
+        ByteBuffer buffer = BufferPool.acquire(BUFFER_SIZE);
+        try (InputStream in = conn.getInputStream()) {
+            int bytesRead;
+
+            while (position <= end
+                    && (bytesRead = in.read(buffer.array(), 0, (int) Math.min(BUFFER_SIZE, end - position + 1))) != -1) {
+                buffer.clear().limit(bytesRead);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                journal.commit(segment, position);
+                if (progress != null) {
+                    progress.add(bytesRead);
+                }
+
+                if (rateLimiter != null) {
+                    try {
+                        rateLimiter.throttle(bytesRead);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Download interrupted", e);
+                    }
+                }
+            }
+
+            if (position != end + 1) {
+                throw new IOException("Segment " + start + "-" + end + " ended early at byte " + position);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (timing != null) {
+                timing.failed(e);
+            }
+            throw e;
+        } finally {
+            BufferPool.release(buffer);
+            Metrics.received(position - start);
+        }
+        if (timing != null) {
+            timing.finish(position - start, "segment", segment);
+        }
+    }
+}
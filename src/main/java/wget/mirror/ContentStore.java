@@ -0,0 +1,101 @@
+package wget.mirror;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Content-addressed store for --dedup in <mirror>/.wget-store/: one hardlink per distinct body, named
+// by its SHA-256. A downloaded file whose hash is already there is dropped and its path becomes
+// another hardlink to the stored copy, so identical bytes served under many URLs take disk space
+// once. Every URL keeps its own path, so links and link conversion work as before.
+//
+// Files that share an inode must never be written in place, so bodies are downloaded to a temporary
+// file and only renamed over their path once they are linked.
+class ContentStore {
+    static final String DIRECTORY = ".wget-store";
+    static final String PART_SUFFIX = ".wget-part";
+
+    private final Path directory;
+    private final AtomicInteger duplicates = new AtomicInteger();
+    private final AtomicLong savedBytes = new AtomicLong();
+    private volatile boolean linksSupported = true;
+
+    ContentStore(Path mirrorDirectory) {
+        this.directory = mirrorDirectory.resolve(DIRECTORY);
+    }
+
+    // A mirror that was deduplicated before has files sharing inodes, so it has to stay deduplicated
+    boolean exists() {
+        return Files.isDirectory(directory);
+    }
+
+    static Path partFile(Path target) {
+        return target.resolveSibling(target.getFileName() + PART_SUFFIX);
+    }
+
+    // Moves the finished download part into place at target, sharing the stored copy of its content
+    // when there is one (hash is its hex SHA-256). Returns true if it was a duplicate.
+    boolean commit(Path part, Path target, String hash) throws IOException {
+        if (!linksSupported) {
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+            return false;
+        }
+
+        Path blob = directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+        boolean duplicate = false;
+        try {
+            Files.createDirectories(blob.getParent());
+            try {
+                Files.createLink(blob, part);
+            } catch (FileAlreadyExistsException e) {
+                // Seen before (or just now, by another worker): keep that copy and drop this one
+                long size = Files.size(part);
+                Files.delete(part);
+                Files.createLink(part, blob);
+                duplicates.incrementAndGet();
+                savedBytes.addAndGet(size);
+                duplicate = true;
+            }
+        } catch (UnsupportedOperationException | IOException e) {
+            if (!Files.exists(part)) {
+                throw e;
+            }
+            linksSupported = false;
+            System.err.printf("Warning: hard links are not available in %s, --dedup is off: %s%n",
+                    directory, e.getMessage());
+        }
+        // The rename replaces the directory entry, so other paths linked to the old file are untouched
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return duplicate;
+    }
+
+    // Drops stored copies no mirrored path links to any more (their file changed on the server).
+    // Link counts need a POSIX file system; elsewhere the store is left as it is.
+    void prune() throws IOException {
+        if (!exists()) {
+            return;
+        }
+        try (Stream<Path> blobs = Files.walk(directory, 2)) {
+            for (Path blob : (Iterable<Path>) blobs::iterator) {
+                if (Files.isRegularFile(blob) && ((Number) Files.getAttribute(blob, "unix:nlink")).intValue() == 1) {
+                    Files.delete(blob);
+                }
+            }
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // No unix view
+        }
+    }
+
+    int duplicates() {
+        return duplicates.get();
+    }
+
+    long savedBytes() {
+        return savedBytes.get();
+    }
+}
@@ -0,0 +1,253 @@
+package wget.mirror;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Append-only log of a mirror's crawl in <mirror>/.wget-state/, so --mirror --resume can continue a
+// crawl that was killed. One record per line, in the order things happened:
+//   + url   queued (claimed in the visited set)
+//   > url   fetch started
+//   = url   saved
+//   ! url   failed
+// A page's links are queued before the page is recorded as saved, so every prefix of the log is a
+// consistent state: on resume, queued URLs without an outcome go back into the frontier and finished
+// pages are neither fetched nor parsed again. Every start and outcome is flushed to the OS, which
+// survives a killed process; an fsync every few seconds bounds what a power loss can take. Whatever is lost is
+// at worst done twice, never skipped.
+class CrawlState implements Closeable {
+    static final String DIRECTORY = ".wget-state";
+    private static final String LOG_FILE = "crawl.log";
+    private static final long CHECKPOINT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final Path logFile;
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private Writer writer;
+    private long lastCheckpoint;
+    private Thread shutdownHook;
+
+    interface Replay {
+        void queued(String url);
+
+        // A queued URL without an outcome; started means its file may have been left half written
+        void pending(String url, boolean started);
+
+        void saved(String url);
+
+        void failed(String url);
+    }
+
+    CrawlState(Path mirrorDirectory) {
+        this.directory = mirrorDirectory.resolve(DIRECTORY);
+        this.logFile = directory.resolve(LOG_FILE);
+    }
+
+    boolean exists() {
+        return Files.exists(logFile);
+    }
+
+    // Two passes, so only the outcomes are held in memory (as fingerprints) and never the whole log
+    void replay(Replay replay) throws IOException {
+        repairTail();
+
+        FingerprintSet finished = new FingerprintSet();
+        FingerprintSet started = new FingerprintSet();
+        try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() < 3) {
+                    continue;
+                }
+                String url = line.substring(2);
+                switch (line.charAt(0)) {
+                    case '>':
+                        started.add(url);
+                        break;
+                    case '=':
+                        finished.add(url);
+                        replay.saved(url);
+                        break;
+                    case '!':
+                        finished.add(url);
+                        replay.failed(url);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() < 3 || line.charAt(0) != '+') {
+                    continue;
+                }
+                String url = line.substring(2);
+                replay.queued(url);
+                if (!finished.contains(url)) {
+                    replay.pending(url, started.contains(url));
+                }
+            }
+        }
+    }
+
+    // Starts appending; unless keep is set, any earlier log is discarded first
+    void open(boolean keep) throws IOException {
+        Files.createDirectories(directory);
+        if (!keep) {
+            Files.deleteIfExists(logFile);
+        }
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+        lastCheckpoint = System.nanoTime();
+
+        // Ctrl-C and kill run shutdown hooks: get the buffered tail to disk on the way out
+        shutdownHook = new Thread(this::checkpointQuietly, "wget-crawl-checkpoint");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    void queued(String url) {
+        append('+', url);
+    }
+
+    void started(String url) {
+        append('>', url, true);
+    }
+
+    void saved(String url) {
+        append('=', url, true);
+    }
+
+    void failed(String url) {
+        append('!', url, true);
+    }
+
+    private void append(char type, String url) {
+        append(type, url, false);
+    }
+
+    private void append(char type, String url, boolean flush) {
+        lock.lock();
+        try {
+            if (writer == null) {
+                return;
+            }
+            writer.write(type);
+            writer.write(' ');
+            writer.write(url.replace('\n', ' ').replace('\r', ' '));
+            writer.write('\n');
+            if (System.nanoTime() - lastCheckpoint >= CHECKPOINT_INTERVAL_NANOS) {
+                checkpoint();
+            } else if (flush) {
+                // The links a page queued are written before its outcome, so they go out with it
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // Losing the log only costs resumability, so the crawl goes on without it
+            System.err.printf("Warning: could not write crawl state, --resume will not be possible: %s%n",
+                    e.getMessage());
+            closeQuietly();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void checkpoint() throws IOException {
+        lock.lock();
+        try {
+            if (writer == null) {
+                return;
+            }
+            writer.flush();
+            channel.force(false);
+            lastCheckpoint = System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            // Shutting down; the last checkpoint is what a resume will see
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (writer == null) {
+                return;
+            }
+            checkpoint();
+            writer.close();
+            writer = null;
+            removeShutdownHook();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The crawl finished, so there is nothing left to resume
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(logFile);
+        Files.deleteIfExists(directory);
+    }
+
+    private void closeQuietly() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // Already failing
+        }
+        writer = null;
+        removeShutdownHook();
+    }
+
+    private void removeShutdownHook() {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down, and the hook is what got us here
+        }
+    }
+
+    // A kill can leave half a record at the end; cut back to the last complete line before reading
+    // or appending to it
+    private void repairTail() throws IOException {
+        try (FileChannel file = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = file.size();
+            ByteBuffer one = ByteBuffer.allocate(1);
+            while (end > 0) {
+                one.clear();
+                file.read(one, end - 1);
+                if (one.get(0) == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end < file.size()) {
+                file.truncate(end);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package wget.mirror;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+// Set of strings that keeps only a 64-bit fingerprint of each, in open-addressing long[] tables.
+// A crawl remembers every URL it has seen; as Strings in a HashSet that is ~150 bytes per URL, here
+// it is 11-21 bytes, so 10M URLs fit in ~200 MB. Two distinct URLs share a fingerprint with
+// probability ~n²/2^65 (about 3 in a million at 10M URLs); the loser is treated as already seen.
+//
+// The table is split into stripes by the fingerprint's top bits, each behind its own lock and grown
+// on its own, so crawl workers rarely contend and a resize only copies 1/64th of the set.
+class FingerprintSet {
+    private static final int STRIPE_BITS = 6;
+    private static final int INITIAL_STRIPE_CAPACITY = 256;
+    // 0 marks an empty slot, so that fingerprint is stored as this instead
+    private static final long ZERO_FINGERPRINT = 1;
+
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        volatile long[] slots = new long[INITIAL_STRIPE_CAPACITY];
+        int size;
+    }
+
+    FingerprintSet() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    // Returns true if the string was not in the set yet
+    boolean add(String value) {
+        long fingerprint = fingerprint(value);
+        Stripe stripe = stripeOf(fingerprint);
+        stripe.lock.lock();
+        try {
+            if (insert(stripe.slots, fingerprint)) {
+                // Resize at 3/4 full; linear probing degrades quickly past that
+                if (++stripe.size * 4L > stripe.slots.length * 3L) {
+                    stripe.slots = grow(stripe.slots);
+                }
+                return true;
+            }
+            return false;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Lock-free, since every discovered link is checked: racing an add it may miss the new entry (a
+    // grow publishes a fresh table), so callers that must not duplicate work decide with add()
+    boolean contains(String value) {
+        long fingerprint = fingerprint(value);
+        long[] slots = stripeOf(fingerprint).slots;
+        int mask = slots.length - 1;
+        for (int i = (int) fingerprint & mask;; i = (i + 1) & mask) {
+            long slot = slots[i];
+            if (slot == fingerprint) {
+                return true;
+            }
+            if (slot == 0) {
+                return false;
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                size += stripe.size;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.slots = new long[INITIAL_STRIPE_CAPACITY];
+                stripe.size = 0;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    private Stripe stripeOf(long fingerprint) {
+        // Slots are picked by the low bits, so stripes use the high ones
+        return stripes[(int) (fingerprint >>> (64 - STRIPE_BITS))];
+    }
+
+    private static boolean insert(long[] slots, long fingerprint) {
+        int mask = slots.length - 1;
+        for (int i = (int) fingerprint & mask;; i = (i + 1) & mask) {
+            if (slots[i] == fingerprint) {
+                return false;
+            }
+            if (slots[i] == 0) {
+                slots[i] = fingerprint;
+                return true;
+            }
+        }
+    }
+
+    private static long[] grow(long[] slots) {
+        long[] grown = new long[slots.length * 2];
+        for (long fingerprint : slots) {
+            if (fingerprint != 0) {
+                insert(grown, fingerprint);
+            }
+        }
+        return grown;
+    }
+
+    // FNV-1a over the UTF-16 chars, then the MurmurHash3 finalizer so every input bit reaches the
+    // high bits the stripe is chosen by
+    static long fingerprint(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? ZERO_FINGERPRINT : h;
+    }
+}
@@ -0,0 +1,238 @@
+package wget.mirror;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The crawl frontier, kept per host so the crawl is polite: each host has its own queue, its
+// robots.txt (fetched once, before its first URL is handed out) and, when robots.txt asks for a
+// Crawl-delay, the earliest time its next request may start. Hosts with queued URLs sit in a heap
+// ordered by that time, so a worker always gets the host that is ready soonest and only waits when
+// none is ready yet; a host that has to wait never holds up the others.
+//
+// URLs to retry wait in a second heap ordered by when they are due, and join their host's queue
+// from there; a host whose circuit breaker opened is paused by pushing back its next fetch. Either
+// way the wait is the scheduler's, never a worker's.
+class HostScheduler {
+    private final boolean obeyRobots;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, Host> hosts = new HashMap<>();
+    private final PriorityQueue<Host> ready =
+            new PriorityQueue<>(Comparator.comparingLong((Host host) -> host.nextFetch));
+    private final PriorityQueue<Delayed> later =
+            new PriorityQueue<>(Comparator.comparingLong((Delayed delayed) -> delayed.due));
+    // Written under the lock, read without it
+    private volatile int size;
+
+    private static final class Delayed {
+        final String url;
+        final long due;
+
+        Delayed(String url, long due) {
+            this.url = url;
+            this.due = due;
+        }
+    }
+
+    private static final class Host {
+        final String origin;
+        final ArrayDeque<String> urls = new ArrayDeque<>();
+        // Guarded by the scheduler lock
+        long nextFetch = System.nanoTime();
+        long delayNanos;
+        boolean scheduled;
+        // Set once, under the host's own lock, so one slow robots.txt only stalls its own host. A lock
+        // rather than a monitor: a virtual thread waiting for the fetch must not pin its carrier.
+        final ReentrantLock robotsLock = new ReentrantLock();
+        volatile RobotsRules robots;
+
+        Host(String origin) {
+            this.origin = origin;
+        }
+    }
+
+    HostScheduler(boolean obeyRobots) {
+        this.obeyRobots = obeyRobots;
+    }
+
+    void add(String url) {
+        lock.lock();
+        try {
+            queue(url);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Queues url once delayNanos have passed
+    void addLater(String url, long delayNanos) {
+        lock.lock();
+        try {
+            later.add(new Delayed(url, System.nanoTime() + delayNanos));
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Holds back every URL of url's host for at least pauseNanos
+    void pause(String url, long pauseNanos) {
+        lock.lock();
+        try {
+            Host host = hosts.computeIfAbsent(originOf(url), Host::new);
+            long until = System.nanoTime() + pauseNanos;
+            if (until - host.nextFetch > 0) {
+                boolean queued = host.scheduled && ready.remove(host);
+                host.nextFetch = until;
+                if (queued) {
+                    ready.add(host);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds lock
+    private void queue(String url) {
+        Host host = hosts.computeIfAbsent(originOf(url), Host::new);
+        host.urls.add(url);
+        size++;
+        if (!host.scheduled) {
+            host.scheduled = true;
+            ready.add(host);
+            changed.signal();
+        }
+    }
+
+    // The next URL whose host may be fetched now, or null if none became ready within the timeout
+    String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long remaining = deadline - now;
+                while (!later.isEmpty() && later.peek().due - now <= 0) {
+                    queue(later.poll().url);
+                }
+                Host host = ready.peek();
+                if (host != null && host.nextFetch - now <= 0 && obeyRobots && host.robots == null) {
+                    // Its Crawl-delay is not known yet, so none of its URLs may go. It stays out of the
+                    // heap while this worker fetches its rules; the other workers go on with other hosts.
+                    ready.poll();
+                    lock.unlock();
+                    try {
+                        robotsOf(host);
+                    } finally {
+                        lock.lock();
+                    }
+                    ready.add(host);
+                    changed.signal();
+                    continue;
+                }
+                if (host != null && host.nextFetch - now <= 0) {
+                    ready.poll();
+                    String url = host.urls.poll();
+                    size--;
+                    host.nextFetch = now + host.delayNanos;
+                    if (host.urls.isEmpty()) {
+                        host.scheduled = false;
+                    } else {
+                        ready.add(host);
+                        // Another worker may be able to take the next one
+                        changed.signal();
+                    }
+                    return url;
+                }
+                if (remaining <= 0) {
+                    return null;
+                }
+                long wait = host == null ? remaining : Math.min(remaining, host.nextFetch - now);
+                if (!later.isEmpty()) {
+                    wait = Math.min(wait, later.peek().due - now);
+                }
+                changed.awaitNanos(wait);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // URLs queued across all hosts
+    int size() {
+        return size;
+    }
+
+    // Whether robots.txt lets us fetch url; fetched by poll() already unless url was never queued
+    boolean allows(String url) {
+        if (!obeyRobots) {
+            return true;
+        }
+        Host host = hostOf(url);
+        return robotsOf(host).allows(pathAndQueryOf(url, host.origin.length()));
+    }
+
+    // The host's rules, fetched on first use. Called without the scheduler lock.
+    private RobotsRules robotsOf(Host host) {
+        RobotsRules robots = host.robots;
+        if (robots == null) {
+            host.robotsLock.lock();
+            try {
+                robots = host.robots;
+                if (robots == null) {
+                    robots = RobotsRules.fetch(host.origin);
+                    setDelay(host, robots.crawlDelayNanos());
+                    host.robots = robots;
+                }
+            } finally {
+                host.robotsLock.unlock();
+            }
+        }
+        return robots;
+    }
+
+    private void setDelay(Host host, long delayNanos) {
+        if (delayNanos <= 0) {
+            return;
+        }
+        System.out.printf("Crawl-delay for %s: %.1fs%n", host.origin, delayNanos / 1e9);
+        lock.lock();
+        try {
+            host.delayNanos = delayNanos;
+            // Its next fetch moves, so a queued host is re-keyed in the heap
+            boolean queued = host.scheduled && ready.remove(host);
+            host.nextFetch = System.nanoTime() + delayNanos;
+            if (queued) {
+                ready.add(host);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Host hostOf(String url) {
+        lock.lock();
+        try {
+            return hosts.computeIfAbsent(originOf(url), Host::new);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // scheme://host[:port] of a canonical URL
+    private static String originOf(String url) {
+        int path = url.indexOf('/', url.indexOf("//") + 2);
+        return path < 0 ? url : url.substring(0, path);
+    }
+
+    private static String pathAndQueryOf(String url, int originLength) {
+        return originLength < url.length() ? url.substring(originLength) : "/";
+    }
+}
@@ -2,138 +2,114 @@ package wget.mirror;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-
 public class HtmlParser {
-    private final Set<String> visitedUrls = new HashSet<>();
+    // Only fingerprints are kept, so a crawl of millions of URLs stays within a modest heap
+    private final FingerprintSet visitedUrls = new FingerprintSet();
     private final List<String> rejectedExtensions;
     private final List<String> excludedPaths;
+    private final UrlCanonicalizer canonicalizer;
 
     private static final Pattern CSS_URL_PATTERN = Pattern.compile(
             "url\\s*\\(\\s*['\"]?([^'\"\\)\\s]+)['\"]?\\s*\\)",
             Pattern.CASE_INSENSITIVE);
 
-    private static final String[][] ELEMENT_SELECTORS = {
-            { "a[href]", "href" },
-            { "img[src]", "src" },
-            { "link[href]", "href" },
-            { "script[src]", "src" }
-    };
-
     public HtmlParser(List<String> rejectedExtensions, List<String> excludedPaths) {
-        this.rejectedExtensions = rejectedExtensions != null ? rejectedExtensions : new ArrayList<>();
-        this.excludedPaths = excludedPaths != null ? excludedPaths : new ArrayList<>();
+        this(rejectedExtensions, excludedPaths, new UrlCanonicalizer());
     }
 
-    public Set<String> parseDocument(String htmlContent, String baseUrl) throws IOException {
-        Set<String> discoveredUrls = new HashSet<>();
-
-        try {
-            Document doc = Jsoup.parse(htmlContent);
-            URL baseUrlObj = new URL(baseUrl);
-
-            processHtmlElements(doc, baseUrlObj, discoveredUrls);
-            processCssUrls(doc, baseUrlObj, discoveredUrls);
-
-        } catch (MalformedURLException e) {
-            throw new IOException("Invalid base URL: " + baseUrl, e);
-        } catch (Exception e) {
-            throw new IOException("Error parsing HTML document: " + e.getMessage(), e);
-        }
-
-        return discoveredUrls;
+    // Every link comes out of the parser in the canonicalizer's form
+    public HtmlParser(List<String> rejectedExtensions, List<String> excludedPaths, UrlCanonicalizer canonicalizer) {
+        this.rejectedExtensions = rejectedExtensions != null ? rejectedExtensions : new ArrayList<>();
+        this.excludedPaths = excludedPaths != null ? excludedPaths : new ArrayList<>();
+        this.canonicalizer = canonicalizer;
     }
 
-    private void processHtmlElements(Document doc, URL baseUrl, Set<String> discoveredUrls) {
-        for (String[] selectorConfig : ELEMENT_SELECTORS) {
-            String selector = selectorConfig[0];
-            String attribute = selectorConfig[1];
-
-            Elements elements = doc.select(selector);
-            for (Element element : elements) {
-                String url = element.attr(attribute);
-                addResolvedUrl(url, baseUrl, discoveredUrls);
-            }
-        }
+    // Links go to the sink resolved but not yet filtered by shouldIncludeUrl, so callers can keep the
+    // full link list of a page (see MirrorCache)
+    public LinkScanner newLinkScanner(String baseUrl, Consumer<String> sink) throws IOException {
+        return newLinkScanner(baseUrl, sink, null);
     }
 
-    private void processCssUrls(Document doc, URL baseUrl, Set<String> discoveredUrls) {
-        // Process <style> tags
-        Elements styleTags = doc.select("style");
-        for (Element styleTag : styleTags) {
-            extractUrlsFromCss(styleTag.html(), baseUrl, discoveredUrls);
+    // Same, but each resolved link is also offered to the rewriter, whose non-null result replaces the
+    // link in the page when the scanner is used as a BodyFilter. Resolved links carry no fragment; the
+    // link's own is put back after the rewriter's result.
+    public LinkScanner newLinkScanner(String baseUrl, Consumer<String> sink, UnaryOperator<String> rewriter)
+            throws IOException {
+        String base = canonicalizer.canonicalize(baseUrl);
+        if (base == null) {
+            throw new IOException("Invalid base URL: " + baseUrl);
         }
 
-        // Process inline style attributes
-        Elements elementsWithStyle = doc.select("[style]");
-        for (Element element : elementsWithStyle) {
-            extractUrlsFromCss(element.attr("style"), baseUrl, discoveredUrls);
-        }
+        return new LinkScanner(url -> {
+            String absoluteUrl = resolveUrl(url, base);
+            if (absoluteUrl == null) {
+                return null;
+            }
+            sink.accept(absoluteUrl);
+            if (rewriter == null || url.startsWith("#")) {
+                return null;
+            }
+            String replacement = rewriter.apply(absoluteUrl);
+            int hash = url.indexOf('#');
+            return replacement != null && hash >= 0 ? replacement + url.substring(hash) : replacement;
+        });
     }
 
-    private void extractUrlsFromCss(String cssContent, URL baseUrl, Set<String> discoveredUrls) {
-        if (cssContent == null || cssContent.trim().isEmpty()) {
-            return;
+    // Rewrites each url(...) whose target the handler replaces; returns the same instance when nothing changed
+    static String replaceCssUrls(String cssContent, UnaryOperator<String> handler) {
+        if (cssContent == null || cssContent.indexOf('(') < 0) {
+            return cssContent;
         }
 
         Matcher matcher = CSS_URL_PATTERN.matcher(cssContent);
+        StringBuilder result = null;
+        int copiedUpTo = 0;
         while (matcher.find()) {
             String url = matcher.group(1).replaceAll("^['\"]|['\"]$", "").trim();
-            if (!url.isEmpty()) {
-                addResolvedUrl(url, baseUrl, discoveredUrls);
+            if (url.isEmpty()) {
+                continue;
             }
+            String replacement = handler.apply(url);
+            if (replacement == null || replacement.equals(url)) {
+                continue;
+            }
+            if (result == null) {
+                result = new StringBuilder(cssContent.length() + 64);
+            }
+            result.append(cssContent, copiedUpTo, matcher.start())
+                    .append("url('").append(replacement.replace("'", "%27")).append("')");
+            copiedUpTo = matcher.end();
         }
-    }
 
-    private void addResolvedUrl(String url, URL baseUrl, Set<String> discoveredUrls) {
-        String absoluteUrl = resolveUrl(url, baseUrl);
-        if (absoluteUrl != null && shouldIncludeUrl(absoluteUrl)) {
-            discoveredUrls.add(absoluteUrl);
+        if (result == null) {
+            return cssContent;
         }
+        return result.append(cssContent, copiedUpTo, cssContent.length()).toString();
     }
 
-    private String resolveUrl(String url, URL baseUrl) {
+    // Absolute canonical URL of a link on the page at baseUrl, or null for non-http(s) links
+    private String resolveUrl(String url, String baseUrl) {
         if (url == null || url.trim().isEmpty()) {
             return null;
         }
+        return canonicalizer.resolve(baseUrl, url);
+    }
 
-        try {
-            // Handle absolute URLs
-            if (url.startsWith("http://") || url.startsWith("https://")) {
-                return url;
-            }
-
-            // Handle protocol-relative URLs
-            if (url.startsWith("//")) {
-                return baseUrl.getProtocol() + ":" + url;
-            }
-
-            URI baseUri = baseUrl.toURI();
-            URI resolvedUri = baseUri.resolve(url);
-            return resolvedUri.toString();
-
-        } catch (URISyntaxException | IllegalArgumentException e) {
-            // Log warning but don't fail the entire parsing process
-            System.err.println("Warning: Could not resolve URL: " + url + " - " + e.getMessage());
-            return null;
-        }
+    public boolean shouldIncludeUrl(String url) {
+        return url != null && !visitedUrls.contains(url) && isAllowed(url);
     }
 
-    private boolean shouldIncludeUrl(String url) {
-        if (url == null || visitedUrls.contains(url)) {
+    // The -R/-X filters alone, without the visited check
+    public boolean isAllowed(String url) {
+        if (url == null) {
             return false;
         }
 
@@ -161,19 +137,7 @@ public class HtmlParser {
         return true;
     }
 
-    public void markAsVisited(String url) {
-        visitedUrls.add(url);
-    }
-
-    public boolean wasVisited(String url) {
-        return visitedUrls.contains(url);
-    }
-
-    public Set<String> getVisitedUrls() {
-        return new HashSet<>(visitedUrls);
-    }
-
-    public void clearVisited() {
-        visitedUrls.clear();
+    public boolean markAsVisited(String url) {
+        return visitedUrls.add(url);
     }
 }
\ No newline at end of file
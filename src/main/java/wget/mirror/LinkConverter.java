@@ -1,200 +1,119 @@
 package wget.mirror;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.UnaryOperator;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import wget.utils.BufferPool;
 
+// Pages are converted while they are saved (see WebsiteMirror.inlineLink); what is left for after the
+// crawl is pointing links whose target never got saved back at the web
 public class LinkConverter {
-    private final Map<String, String> urlToLocalPathMap;
-
-    private static final Pattern CSS_URL_PATTERN = Pattern.compile(
-            "url\\s*\\(\\s*['\"]?([^'\"\\)\\s]+)['\"]?\\s*\\)",
-            Pattern.CASE_INSENSITIVE);
-
-    private static final Pattern HTML_FILE_PATTERN = Pattern.compile(
-            "\\.(html?|htm|xhtml|shtml)$", Pattern.CASE_INSENSITIVE);
-
-    private static final String[][] ELEMENT_CONFIGS = {
-            { "a[href]", "href" },
-            { "img[src]", "src" },
-            { "link[href]", "href" },
-            { "script[src]", "src" }
-    };
-
-    public LinkConverter(Map<String, String> urlToLocalPathMap) {
-        this.urlToLocalPathMap = urlToLocalPathMap;
-    }
-
-    public void convertLinksInFile(String filePath) throws IOException {
-        if (!isHtmlFile(filePath) || !Files.exists(Paths.get(filePath))) {
-            return;
-        }
-
-        String content = Files.readString(Paths.get(filePath));
-        String convertedContent = convertLinksInHtml(content, filePath);
-
-        if (!content.equals(convertedContent)) {
-            Files.writeString(Paths.get(filePath), convertedContent);
-        }
-    }
-
-    private String convertLinksInHtml(String htmlContent, String currentFilePath) {
+    static String relativePath(String fromPath, String toPath) {
         try {
-            Document doc = Jsoup.parse(htmlContent);
-            boolean modified = false;
-
-            modified |= processHtmlElements(doc, currentFilePath);
-
-            modified |= processCssUrls(doc, currentFilePath);
+            Path from = Paths.get(fromPath).getParent();
+            Path to = Paths.get(toPath);
 
-            return modified ? doc.outerHtml() : htmlContent;
+            if (from == null) {
+                return toPath;
+            }
 
+            Path relativePath = from.relativize(to);
+            return relativePath.toString();
         } catch (Exception e) {
-            System.err.println("Warning: Could not convert links in HTML: " + e.getMessage());
-            return htmlContent;
+            return toPath;
         }
     }
 
-    private boolean processHtmlElements(Document doc, String currentFilePath) {
-        boolean modified = false;
-
-        for (String[] config : ELEMENT_CONFIGS) {
-            String selector = config[0];
-            String attribute = config[1];
-
-            Elements elements = doc.select(selector);
-            for (Element element : elements) {
-                String originalUrl = element.attr(attribute);
-                String convertedUrl = convertUrl(originalUrl, currentFilePath);
-
-                if (!originalUrl.equals(convertedUrl)) {
-                    element.attr(attribute, convertedUrl);
-                    modified = true;
-                }
+    // Pages converted while they were saved link to where every same-site URL would be stored. This
+    // points links whose target never got saved (keyed by targetKey of its local path) back at the URL.
+    public static void restoreLinks(Collection<String> pages, Map<String, String> missingTargets) {
+        pages.parallelStream().forEach(localPath -> {
+            try {
+                restoreLinksInFile(localPath, missingTargets);
+            } catch (IOException e) {
+                System.err.printf("Warning: Could not restore links in file %s: %s%n",
+                        localPath, e.getMessage());
             }
-        }
-
-        return modified;
+        });
     }
 
-    private boolean processCssUrls(Document doc, String currentFilePath) {
-        boolean modified = false;
-
-        // Process <style> tags
-        Elements styleTags = doc.select("style");
-        for (Element styleTag : styleTags) {
-            String originalCss = styleTag.html();
-            String convertedCss = convertCssUrls(originalCss, currentFilePath);
-            if (!originalCss.equals(convertedCss)) {
-                styleTag.html(convertedCss);
-                modified = true;
-            }
+    private static void restoreLinksInFile(String localPath, Map<String, String> missingTargets) throws IOException {
+        Path file = Paths.get(localPath);
+        if (!Files.exists(file)) {
+            return;
         }
 
-        // Process inline style attributes
-        Elements elementsWithStyle = doc.select("[style]");
-        for (Element element : elementsWithStyle) {
-            String originalStyle = element.attr("style");
-            String convertedStyle = convertCssUrls(originalStyle, currentFilePath);
-            if (!originalStyle.equals(convertedStyle)) {
-                element.attr("style", convertedStyle);
-                modified = true;
+        Path directory = file.toAbsolutePath().getParent();
+        boolean[] hit = new boolean[1];
+        UnaryOperator<String> restore = link -> {
+            String url = missingTarget(link, directory, missingTargets);
+            if (url != null) {
+                hit[0] = true;
             }
-        }
-
-        return modified;
-    }
-
-    private String convertCssUrls(String cssContent, String currentFilePath) {
-        if (cssContent == null || cssContent.trim().isEmpty()) {
-            return cssContent;
-        }
-
-        StringBuffer result = new StringBuffer();
-        Matcher matcher = CSS_URL_PATTERN.matcher(cssContent);
-
-        while (matcher.find()) {
-            String originalUrl = matcher.group(1).trim();
-            String convertedUrl = convertUrl(originalUrl, currentFilePath);
-
-            // Build replacement with proper quoting
-            String replacement = "url('" + convertedUrl + "')";
-            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
-        }
-        matcher.appendTail(result);
-
-        return result.toString();
-    }
-
-    private String convertUrl(String url, String currentFilePath) {
-        if (url == null || url.trim().isEmpty() ||
-                url.startsWith("data:") || url.startsWith("javascript:") || url.startsWith("#")) {
             return url;
-        }
+        };
 
-        String localPath = findLocalPath(url);
-        if (localPath != null) {
-            return makeRelativePath(currentFilePath, localPath);
-        }
-
-        return url;
-    }
-
-    private String findLocalPath(String url) {
-        if (urlToLocalPathMap.containsKey(url)) {
-            return urlToLocalPathMap.get(url);
-        }
+        ByteBuffer pooled = BufferPool.acquire(BufferPool.MIN_SIZE);
+        try {
+            // Most pages link to nothing missing, so read first and only rewrite the ones that do
+            LinkScanner scanner = new LinkScanner(restore);
+            byte[] buffer = pooled.array();
+            try (InputStream in = Files.newInputStream(file)) {
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    scanner.feed(buffer, 0, bytesRead);
+                }
+            }
+            scanner.finish();
+            if (!hit[0]) {
+                return;
+            }
 
-        if (!url.isEmpty()) {
-            for (Map.Entry<String, String> entry : urlToLocalPathMap.entrySet()) {
-                if (entry.getKey().endsWith(url)) {
-                    return entry.getValue();
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            LinkScanner rewriter = new LinkScanner(restore);
+            try (InputStream in = Files.newInputStream(file);
+                    OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    rewriter.filter(buffer, 0, bytesRead, out);
                 }
+                rewriter.finish(out);
             }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            BufferPool.release(pooled);
         }
-
-        return null;
     }
 
-    private String makeRelativePath(String fromPath, String toPath) {
+    private static String missingTarget(String link, Path directory, Map<String, String> missingTargets) {
+        int hash = link.indexOf('#');
+        String path = hash >= 0 ? link.substring(0, hash) : link;
+        if (path.isEmpty() || path.contains(":")) {
+            // Fragment-only or still absolute, so never converted
+            return null;
+        }
         try {
-            Path from = Paths.get(fromPath).getParent();
-            Path to = Paths.get(toPath);
-
-            if (from == null) {
-                return toPath;
-            }
-
-            Path relativePath = from.relativize(to);
-            return relativePath.toString();
-        } catch (Exception e) {
-            return toPath;
+            String target = directory.resolve(path).normalize().toString();
+            String url = missingTargets.get(target);
+            return url != null ? url + (hash >= 0 ? link.substring(hash) : "") : null;
+        } catch (InvalidPathException e) {
+            return null;
         }
     }
 
-    private boolean isHtmlFile(String filePath) {
-        return HTML_FILE_PATTERN.matcher(filePath.toLowerCase()).find();
-    }
-
-    public void convertAllFiles() throws IOException {
-        for (String localPath : urlToLocalPathMap.values()) {
-            if (isHtmlFile(localPath)) {
-                try {
-                    convertLinksInFile(localPath);
-                } catch (IOException e) {
-                    System.err.printf("Warning: Could not convert links in file %s: %s%n",
-                            localPath, e.getMessage());
-                }
-            }
-        }
+    // The form restoreLinks expects its keys in
+    static String targetKey(String localPath) {
+        return Paths.get(localPath).toAbsolutePath().normalize().toString();
     }
-}
\ No newline at end of file
+}
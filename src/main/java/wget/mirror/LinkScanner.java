@@ -0,0 +1,412 @@
+package wget.mirror;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.UnaryOperator;
+
+import org.jsoup.parser.Parser;
+
+import wget.download.BodyFilter;
+
+// Pulls the links a mirror follows (a/link href, img/script src, <style> and
+// style="" url() values) out of HTML as bytes arrive, without buffering the page or building a DOM.
+// Bytes are read as ISO-8859-1, which maps each byte to one char, so chunk boundaries never split
+// a character; values are turned back into UTF-8 text only when a link is handed out.
+//
+// Every link goes through the handler, which may return a replacement. Through feed() the scanner
+// only reads; used as a BodyFilter it also writes the page out with the replacements applied,
+// copying every other byte unchanged.
+public class LinkScanner implements BodyFilter {
+    private enum State {
+        TEXT, TAG, COMMENT, SCRIPT, STYLE
+    }
+
+    private static final int MAX_TAG_LENGTH = 64 * 1024;
+    private static final int MAX_STYLE_LENGTH = 1024 * 1024;
+
+    private static final String SCRIPT_END = "</script";
+    private static final String STYLE_END = "</style";
+
+    private final UnaryOperator<String> handler;
+    private final StringBuilder tag = new StringBuilder();
+    private final StringBuilder style = new StringBuilder();
+
+    private OutputStream out;
+    private boolean rewritten;
+    private State state = State.TEXT;
+    private int tagEmitted;
+    private char quote;
+    private char lastSignificant;
+    private int matched;
+    private int dashes;
+    private long scanNanos;
+
+    // The handler receives each decoded link value and returns its replacement, or null to keep it
+    public LinkScanner(UnaryOperator<String> handler) {
+        this.handler = handler;
+    }
+
+    public void feed(byte[] data, int offset, int length) {
+        long start = System.nanoTime();
+        try {
+            scan(data, offset, length, null);
+        } catch (IOException e) {
+            // Nothing is written without an output stream
+            throw new UncheckedIOException(e);
+        } finally {
+            scanNanos += System.nanoTime() - start;
+        }
+    }
+
+    public void finish() {
+        try {
+            finish(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Whether any link was replaced, i.e. the filtered output differs from the input
+    public boolean hasRewritten() {
+        return rewritten;
+    }
+
+    // Time spent scanning so far, including the handler's work on each link
+    public long scanNanos() {
+        return scanNanos;
+    }
+
+    @Override
+    public void filter(byte[] data, int offset, int length, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        try {
+            scan(data, offset, length, out);
+        } finally {
+            scanNanos += System.nanoTime() - start;
+        }
+    }
+
+    // Flushes an unterminated tag or <style> block once the body has ended
+    @Override
+    public void finish(OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        this.out = out;
+        try {
+            if (state == State.STYLE) {
+                emitStyle(0);
+            } else if (state == State.TAG) {
+                emitTag(tag.toString());
+            }
+            state = State.TEXT;
+        } finally {
+            scanNanos += System.nanoTime() - start;
+        }
+    }
+
+    private void scan(byte[] data, int offset, int length, OutputStream out) throws IOException {
+        this.out = out;
+        int end = offset + length;
+        // Start of the run of bytes copied through unchanged, or -1 while input is being buffered
+        int emitFrom = isPassThrough() ? offset : -1;
+
+        for (int i = offset; i < end; i++) {
+            char c = (char) (data[i] & 0xff);
+            switch (state) {
+                case TEXT:
+                    if (c == '<') {
+                        emitFrom = emit(data, emitFrom, i);
+                        startTag("<", 0);
+                    }
+                    break;
+                case TAG:
+                    consumeTag(c);
+                    if (isPassThrough()) {
+                        emitFrom = i + 1;
+                    }
+                    break;
+                case COMMENT:
+                    if (c == '>' && dashes >= 2) {
+                        state = State.TEXT;
+                    }
+                    dashes = (c == '-') ? dashes + 1 : 0;
+                    break;
+                case SCRIPT:
+                    if (matchEnd(c, SCRIPT_END)) {
+                        // The marker went out with the script body, so the tag starts as already written
+                        emitFrom = emit(data, emitFrom, i + 1);
+                        startTag(SCRIPT_END, SCRIPT_END.length());
+                    }
+                    break;
+                case STYLE:
+                    style.append(c);
+                    if (matchEnd(c, STYLE_END)) {
+                        style.setLength(style.length() - STYLE_END.length());
+                        emitStyle(0);
+                        startTag(STYLE_END, 0);
+                    } else if (style.length() >= MAX_STYLE_LENGTH) {
+                        emitStyle(matched);
+                    }
+                    break;
+            }
+        }
+
+        if (isPassThrough()) {
+            emit(data, emitFrom, end);
+        }
+    }
+
+    private boolean isPassThrough() {
+        return state == State.TEXT || state == State.COMMENT || state == State.SCRIPT;
+    }
+
+    private void startTag(String prefix, int alreadyEmitted) {
+        tag.setLength(0);
+        tag.append(prefix);
+        tagEmitted = alreadyEmitted;
+        quote = 0;
+        lastSignificant = 0;
+        state = State.TAG;
+    }
+
+    private void consumeTag(char c) throws IOException {
+        tag.append(c);
+
+        if (tag.length() == 2 && !isTagStart(c)) {
+            // A bare '<' in text, as in "a < b"
+            state = State.TEXT;
+            emitTag(tag.toString());
+            return;
+        }
+        if (tag.length() == 4 && tag.charAt(1) == '!' && tag.charAt(2) == '-' && tag.charAt(3) == '-') {
+            state = State.COMMENT;
+            dashes = 0;
+            emitTag(tag.toString());
+            return;
+        }
+
+        if (quote != 0) {
+            if (c == quote) {
+                quote = 0;
+            }
+        } else if ((c == '"' || c == '\'') && lastSignificant == '=') {
+            quote = c;
+        } else if (c == '>') {
+            state = State.TEXT;
+            emitTag(processTag());
+            return;
+        }
+
+        if (!Character.isWhitespace(c)) {
+            lastSignificant = c;
+        }
+        if (tag.length() > MAX_TAG_LENGTH) {
+            state = State.TEXT;
+            emitTag(tag.toString());
+        }
+    }
+
+    private boolean matchEnd(char c, String marker) {
+        // Markers start with '<', which appears nowhere else in them, so a mismatch can only restart at '<'
+        if (Character.toLowerCase(c) == marker.charAt(matched)) {
+            matched++;
+        } else {
+            matched = (c == '<') ? 1 : 0;
+        }
+        if (matched == marker.length()) {
+            matched = 0;
+            return true;
+        }
+        return false;
+    }
+
+    // Runs the tag's link and style attributes through the handler and returns the tag text to write
+    private String processTag() {
+        if (tag.length() < 3 || !Character.isLetter(tag.charAt(1))) {
+            return tag.toString();
+        }
+
+        int nameEnd = 1;
+        while (nameEnd < tag.length() && Character.isLetterOrDigit(tag.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        int nameLength = nameEnd - 1;
+        boolean isScript = matches(1, nameLength, "script");
+        boolean isStyleTag = matches(1, nameLength, "style");
+        String linkAttribute = null;
+        if (matches(1, nameLength, "a") || matches(1, nameLength, "link")) {
+            linkAttribute = "href";
+        } else if (matches(1, nameLength, "img") || isScript) {
+            linkAttribute = "src";
+        }
+
+        // Built only once a value actually changes, so untouched tags cost no copy
+        StringBuilder result = null;
+        int copiedUpTo = 0;
+
+        // Hand-rolled attribute walk: tags are tokenized on every page, so no regex or per-attribute strings
+        int end = tag.length() - 1;
+        int i = nameEnd;
+        while (i < end) {
+            while (i < end && (Character.isWhitespace(tag.charAt(i)) || tag.charAt(i) == '/')) {
+                i++;
+            }
+            int attributeStart = i;
+            while (i < end && !Character.isWhitespace(tag.charAt(i)) && tag.charAt(i) != '='
+                    && tag.charAt(i) != '/') {
+                i++;
+            }
+            int attributeLength = i - attributeStart;
+            if (attributeLength == 0) {
+                i++;
+                continue;
+            }
+
+            while (i < end && Character.isWhitespace(tag.charAt(i))) {
+                i++;
+            }
+            if (i >= end || tag.charAt(i) != '=') {
+                continue;
+            }
+            i++;
+            while (i < end && Character.isWhitespace(tag.charAt(i))) {
+                i++;
+            }
+
+            int valueStart;
+            int valueEnd;
+            char valueQuote = i < end ? tag.charAt(i) : 0;
+            if (valueQuote == '"' || valueQuote == '\'') {
+                valueStart = i + 1;
+                valueEnd = tag.indexOf(valueQuote == '"' ? "\"" : "'", valueStart);
+                if (valueEnd < 0 || valueEnd > end) {
+                    valueEnd = end;
+                }
+                i = valueEnd + 1;
+            } else {
+                valueQuote = 0;
+                valueStart = i;
+                while (i < end && !Character.isWhitespace(tag.charAt(i))) {
+                    i++;
+                }
+                valueEnd = i;
+            }
+
+            boolean isLink = linkAttribute != null && matches(attributeStart, attributeLength, linkAttribute);
+            boolean isStyle = !isLink && matches(attributeStart, attributeLength, "style");
+            if (!isLink && !isStyle) {
+                continue;
+            }
+
+            String value = attributeValue(tag.substring(valueStart, valueEnd));
+            String replacement = isLink ? handler.apply(value) : HtmlParser.replaceCssUrls(value, handler);
+            if (replacement != null && !replacement.equals(value)) {
+                if (result == null) {
+                    result = new StringBuilder(tag.length() + 64);
+                    rewritten = true;
+                }
+                result.append(tag, copiedUpTo, valueStart);
+                result.append(encode(escapeAttribute(replacement, valueQuote)));
+                copiedUpTo = valueEnd;
+            }
+        }
+
+        boolean selfClosing = tag.charAt(tag.length() - 2) == '/';
+        if (isScript && !selfClosing) {
+            state = State.SCRIPT;
+            matched = 0;
+        } else if (isStyleTag && !selfClosing) {
+            state = State.STYLE;
+            matched = 0;
+            style.setLength(0);
+        }
+
+        if (result == null) {
+            return tag.toString();
+        }
+        return result.append(tag, copiedUpTo, tag.length()).toString();
+    }
+
+    // Case-insensitive comparison of a region of the current tag against a lowercase name
+    private boolean matches(int start, int length, String lowerName) {
+        if (length != lowerName.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase(tag.charAt(start + i)) != lowerName.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Writes the buffered CSS except its last `keep` chars, which may be the start of the end marker
+    private void emitStyle(int keep) throws IOException {
+        String raw = style.substring(0, style.length() - keep);
+        String css = decode(raw);
+        String result = HtmlParser.replaceCssUrls(css, handler);
+        style.delete(0, raw.length());
+        if (result != css) {
+            rewritten = true;
+        }
+        if (out != null) {
+            out.write((result == css ? raw : encode(result)).getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private void emitTag(String text) throws IOException {
+        if (out != null && text.length() > tagEmitted) {
+            out.write(text.substring(tagEmitted).getBytes(StandardCharsets.ISO_8859_1));
+        }
+        tagEmitted = 0;
+    }
+
+    private int emit(byte[] data, int from, int to) throws IOException {
+        if (out != null && from >= 0 && to > from) {
+            out.write(data, from, to - from);
+        }
+        return -1;
+    }
+
+    private static String attributeValue(String raw) {
+        String value = decode(raw);
+        return value.indexOf('&') >= 0 ? Parser.unescapeEntities(value, true) : value;
+    }
+
+    private static String escapeAttribute(String value, char valueQuote) {
+        String escaped = value.replace("&", "&amp;");
+        if (valueQuote == '\'') {
+            return escaped.replace("'", "&#39;");
+        }
+        escaped = escaped.replace("\"", "&quot;");
+        if (valueQuote == 0 && !escaped.chars().allMatch(ch -> ch > ' ' && ch != '>' && ch != '\'')) {
+            // An unquoted value cannot hold spaces or '>', so the replacement gets quotes
+            return "\"" + escaped + "\"";
+        }
+        return escaped;
+    }
+
+    private static boolean isTagStart(char c) {
+        return Character.isLetter(c) || c == '/' || c == '!' || c == '?';
+    }
+
+    private static String decode(String latin1) {
+        for (int i = 0; i < latin1.length(); i++) {
+            if (latin1.charAt(i) > 0x7f) {
+                return new String(latin1.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+            }
+        }
+        return latin1;
+    }
+
+    // Inverse of decode: UTF-8 text back into the one-char-per-byte form the scanner works in
+    private static String encode(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7f) {
+                return new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+            }
+        }
+        return text;
+    }
+}
@@ -0,0 +1,346 @@
+package wget.mirror;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Per-mirror index of what was fetched last time (validators, size, hash and the links a page held),
+// so a re-mirror can revalidate with conditional requests and skip unchanged pages entirely.
+// Stored as one tab-separated line per URL: url, etag, last-modified, size, sha-256, links...
+//
+// Entries stay on disk. Memory holds only a table from each URL's 64-bit fingerprint to where its
+// line starts: in the last run's file, or in the pending file this run appends its entries to. An
+// entry is read back when asked for, and its URL compared, so a fingerprint collision is a miss.
+// The table takes 16 bytes per slot and stays 3/8 to 3/4 full, so 21-43 bytes per URL: 1M URLs
+// cost 21-43 MB however many links their pages hold. save() copies over the old entries this run
+// did not replace and swaps the pending file in.
+public class MirrorCache {
+    public static final String FILE_NAME = ".wget-cache";
+    private static final String NONE = "-";
+    private static final int READ_CHUNK = 8 * 1024;
+
+    private final Path file;
+    private final Path pending;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private final OffsetTable offsets = new OffsetTable();
+    private FileChannel previousFile;
+    private FileChannel pendingFile;
+    private long pendingSize;
+    private int previousEntries;
+
+    public static class Entry {
+        public final String etag;
+        public final String lastModified;
+        public final long size;
+        public final String hash;
+        public final List<String> links;
+
+        public Entry(String etag, String lastModified, long size, String hash, List<String> links) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.hash = hash;
+            this.links = links;
+        }
+    }
+
+    public MirrorCache(Path mirrorDirectory) {
+        this.file = mirrorDirectory.resolve(FILE_NAME);
+        this.pending = mirrorDirectory.resolve(FILE_NAME + ".new");
+    }
+
+    public void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            forEachLine(file, (line, length, offset) -> {
+                String url = urlOf(line, length);
+                if (url != null) {
+                    offsets.put(FingerprintSet.fingerprint(url), OffsetTable.previous(offset));
+                    previousEntries++;
+                }
+            });
+            previousFile = FileChannel.open(file, StandardOpenOption.READ);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Old entries this run did not replace are carried over, then the pending file becomes the cache
+    public void save() throws IOException {
+        lock.lock();
+        try {
+            openPending();
+            if (previousFile != null) {
+                previousFile.close();
+                previousFile = null;
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(pending,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND))) {
+                    forEachLine(file, (line, length, offset) -> {
+                        String url = urlOf(line, length);
+                        // Kept unless this run replaced or removed it, or a later line had the same URL
+                        if (url != null
+                                && offsets.get(FingerprintSet.fingerprint(url)) == OffsetTable.previous(offset)) {
+                            out.write(line, 0, length);
+                            out.write('\n');
+                        }
+                    });
+                }
+            }
+            pendingFile.close();
+            pendingFile = null;
+            Files.move(pending, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Entry get(String url) throws IOException {
+        long fingerprint = FingerprintSet.fingerprint(url);
+        long at;
+        FileChannel channel;
+        lock.lock();
+        try {
+            at = offsets.get(fingerprint);
+            if (at == OffsetTable.ABSENT || at == OffsetTable.REMOVED) {
+                return null;
+            }
+            channel = OffsetTable.isPending(at) ? pendingFile : previousFile;
+        } finally {
+            lock.unlock();
+        }
+        return channel != null ? parse(url, readLine(channel, OffsetTable.offsetOf(at))) : null;
+    }
+
+    public void put(String url, String etag, String lastModified, long size, String hash, Collection<String> links)
+            throws IOException {
+        StringBuilder line = new StringBuilder(128 + links.size() * 64);
+        line.append(clean(url)).append('\t').append(clean(etag)).append('\t').append(clean(lastModified))
+                .append('\t').append(size).append('\t').append(clean(hash));
+        for (String link : links) {
+            line.append('\t').append(clean(link));
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(line.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+
+        lock.lock();
+        try {
+            openPending();
+            long at = pendingSize;
+            while (bytes.hasRemaining()) {
+                pendingSize += pendingFile.write(bytes, pendingSize);
+            }
+            offsets.put(FingerprintSet.fingerprint(url), OffsetTable.pending(at));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void remove(String url) {
+        lock.lock();
+        try {
+            offsets.put(FingerprintSet.fingerprint(url), OffsetTable.REMOVED);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Entries the last run left
+    public int size() {
+        return previousEntries;
+    }
+
+    // Caller holds lock. A pending file left by a run that stopped before save() is started over.
+    private void openPending() throws IOException {
+        if (pendingFile == null) {
+            pendingFile = FileChannel.open(pending, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            pendingSize = 0;
+        }
+    }
+
+    private static Entry parse(String url, String line) {
+        if (line == null) {
+            return null;
+        }
+        String[] fields = line.split("\t");
+        if (fields.length < 5 || !fields[0].equals(url)) {
+            // A damaged line, or another URL with the same fingerprint
+            return null;
+        }
+        try {
+            List<String> links = new ArrayList<>(Arrays.asList(fields).subList(5, fields.length));
+            return new Entry(field(fields[1]), field(fields[2]), Long.parseLong(fields[3]), field(fields[4]),
+                    links);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // The line starting at offset, without its newline; null past the end of the file
+    private static String readLine(FileChannel channel, long offset) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(READ_CHUNK);
+        ByteBuffer chunk = ByteBuffer.allocate(READ_CHUNK);
+        long position = offset;
+        while (true) {
+            chunk.clear();
+            int read = channel.read(chunk, position);
+            if (read <= 0) {
+                return line.size() > 0 ? line.toString(StandardCharsets.UTF_8) : null;
+            }
+            byte[] bytes = chunk.array();
+            for (int i = 0; i < read; i++) {
+                if (bytes[i] == '\n') {
+                    line.write(bytes, 0, i);
+                    return line.toString(StandardCharsets.UTF_8);
+                }
+            }
+            line.write(bytes, 0, read);
+            position += read;
+        }
+    }
+
+    private interface LineVisitor {
+        void visit(byte[] line, int length, long offset) throws IOException;
+    }
+
+    // Streams the file a line at a time, so only the longest line is ever held
+    private static void forEachLine(Path path, LineVisitor visitor) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 64 * 1024)) {
+            byte[] line = new byte[1024];
+            int length = 0;
+            long offset = 0;
+            long lineStart = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                offset++;
+                if (b == '\n') {
+                    visitor.visit(line, length, lineStart);
+                    length = 0;
+                    lineStart = offset;
+                    continue;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[length++] = (byte) b;
+            }
+            if (length > 0) {
+                visitor.visit(line, length, lineStart);
+            }
+        }
+    }
+
+    // The URL a cache line is for, or null for a line too short to be an entry
+    private static String urlOf(byte[] line, int length) {
+        int tabs = 0;
+        int urlEnd = -1;
+        for (int i = 0; i < length && tabs < 4; i++) {
+            if (line[i] == '\t') {
+                if (tabs++ == 0) {
+                    urlEnd = i;
+                }
+            }
+        }
+        return tabs < 4 ? null : new String(line, 0, urlEnd, StandardCharsets.UTF_8);
+    }
+
+    private static String field(String value) {
+        return NONE.equals(value) ? null : value;
+    }
+
+    private static String clean(String value) {
+        if (value == null || value.isEmpty()) {
+            return NONE;
+        }
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    // Fingerprint -> line offset, in open-addressing long[] tables as FingerprintSet keeps its
+    // fingerprints. The low bit of a value says which file the offset is in.
+    private static final class OffsetTable {
+        static final long ABSENT = -1;
+        static final long REMOVED = -2;
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private long[] values = new long[INITIAL_CAPACITY];
+        private int size;
+
+        static long previous(long offset) {
+            return offset << 1;
+        }
+
+        static long pending(long offset) {
+            return offset << 1 | 1;
+        }
+
+        static boolean isPending(long value) {
+            return (value & 1) != 0;
+        }
+
+        static long offsetOf(long value) {
+            return value >>> 1;
+        }
+
+        long get(long key) {
+            int mask = keys.length - 1;
+            for (int i = (int) key & mask;; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+                if (keys[i] == 0) {
+                    return ABSENT;
+                }
+            }
+        }
+
+        void put(long key, long value) {
+            if (insert(keys, values, key, value) && ++size * 4L > keys.length * 3L) {
+                long[] grownKeys = new long[keys.length * 2];
+                long[] grownValues = new long[keys.length * 2];
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] != 0) {
+                        insert(grownKeys, grownValues, keys[i], values[i]);
+                    }
+                }
+                keys = grownKeys;
+                values = grownValues;
+            }
+        }
+
+        // Fingerprints are never 0, which marks an empty slot; true when the key is new
+        private static boolean insert(long[] keys, long[] values, long key, long value) {
+            int mask = keys.length - 1;
+            for (int i = (int) key & mask;; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return false;
+                }
+                if (keys[i] == 0) {
+                    keys[i] = key;
+                    values[i] = value;
+                    return true;
+                }
+            }
+        }
+    }
+}
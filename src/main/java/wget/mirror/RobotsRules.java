@@ -0,0 +1,170 @@
+package wget.mirror;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import wget.utils.NetworkUtils;
+
+// A host's robots.txt (RFC 9309) as it applies to us: the rules of the group naming "wget", or of
+// the "*" group when none does, plus its Crawl-delay. Rules are kept longest first, so the first
+// one that matches is the most specific and decides; plain prefixes are checked with startsWith and
+// only patterns with '*' or '$' go through a regex.
+class RobotsRules {
+    static final String AGENT = "wget";
+    // RFC 9309 lets crawlers stop reading after 500 KiB
+    private static final int MAX_SIZE = 500 * 1024;
+
+    static final RobotsRules ALLOW_ALL = new RobotsRules(List.of(), 0);
+
+    private final List<Rule> rules;
+    private final long crawlDelayNanos;
+
+    private static final class Rule {
+        final String path;
+        final boolean allow;
+        final Pattern pattern;
+
+        Rule(String path, boolean allow) {
+            this.path = path;
+            this.allow = allow;
+            this.pattern = path.indexOf('*') >= 0 || path.endsWith("$") ? compile(path) : null;
+        }
+
+        boolean matches(String target) {
+            return pattern == null ? target.startsWith(path) : pattern.matcher(target).lookingAt();
+        }
+
+        private static Pattern compile(String path) {
+            boolean anchored = path.endsWith("$");
+            StringBuilder regex = new StringBuilder();
+            for (String literal : (anchored ? path.substring(0, path.length() - 1) : path).split("\\*", -1)) {
+                if (regex.length() > 0) {
+                    regex.append(".*");
+                }
+                if (!literal.isEmpty()) {
+                    regex.append(Pattern.quote(literal));
+                }
+            }
+            return Pattern.compile(anchored ? regex.append('$').toString() : regex.toString(), Pattern.DOTALL);
+        }
+    }
+
+    private RobotsRules(List<Rule> rules, long crawlDelayNanos) {
+        this.rules = rules;
+        this.crawlDelayNanos = crawlDelayNanos;
+    }
+
+    // origin is scheme://host[:port]. A missing robots.txt allows everything; so does one that cannot
+    // be fetched, with a warning, rather than stopping the mirror.
+    static RobotsRules fetch(String origin) {
+        String url = origin + "/robots.txt";
+        try {
+            HttpURLConnection conn = NetworkUtils.createConnection(url, "GET");
+            int status = conn.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                NetworkUtils.release(conn);
+                if (status >= 500) {
+                    System.err.printf("Warning: %s returned status %d, crawling without it%n", url, status);
+                }
+                return ALLOW_ALL;
+            }
+            try (InputStream in = conn.getInputStream()) {
+                return parse(new String(in.readNBytes(MAX_SIZE), StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            System.err.printf("Warning: could not fetch %s, crawling without it: %s%n", url, e.getMessage());
+            return ALLOW_ALL;
+        }
+    }
+
+    static RobotsRules parse(String content) {
+        List<Rule> ours = new ArrayList<>();
+        List<Rule> any = new ArrayList<>();
+        double oursDelay = -1;
+        double anyDelay = -1;
+        boolean ourGroup = false;
+
+        // A group is one or more user-agent lines followed by its rules
+        boolean inAgents = false;
+        boolean forUs = false;
+        boolean forAny = false;
+        for (String line : content.split("\r\n|\r|\n")) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String key = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+
+            if (key.equals("user-agent")) {
+                if (!inAgents) {
+                    forUs = false;
+                    forAny = false;
+                    inAgents = true;
+                }
+                String agent = value.toLowerCase();
+                forUs |= agent.equals(AGENT) || agent.startsWith(AGENT + "/");
+                ourGroup |= forUs;
+                forAny |= agent.equals("*");
+                continue;
+            }
+            inAgents = false;
+            if (!forUs && !forAny) {
+                continue;
+            }
+
+            if (key.equals("allow") || key.equals("disallow")) {
+                if (value.isEmpty()) {
+                    // "Disallow:" with no path allows everything, and adds no rule
+                    continue;
+                }
+                Rule rule = new Rule(value, key.equals("allow"));
+                (forUs ? ours : any).add(rule);
+            } else if (key.equals("crawl-delay")) {
+                try {
+                    double seconds = Double.parseDouble(value);
+                    if (forUs) {
+                        oursDelay = seconds;
+                    } else {
+                        anyDelay = seconds;
+                    }
+                } catch (NumberFormatException e) {
+                    // Ignore a malformed delay like any other unknown line
+                }
+            }
+        }
+
+        // A group of our own replaces "*" entirely, even when it is empty
+        List<Rule> rules = ourGroup ? ours : any;
+        double delay = ourGroup ? oursDelay : anyDelay;
+        // Longest first; at equal length, Allow wins
+        rules.sort(Comparator.comparingInt((Rule rule) -> rule.path.length()).reversed()
+                .thenComparing(rule -> !rule.allow));
+        return new RobotsRules(rules, delay > 0 ? (long) (delay * TimeUnit.SECONDS.toNanos(1)) : 0);
+    }
+
+    // pathAndQuery starts with '/', as in the request line
+    boolean allows(String pathAndQuery) {
+        for (Rule rule : rules) {
+            if (rule.matches(pathAndQuery)) {
+                return rule.allow;
+            }
+        }
+        return true;
+    }
+
+    long crawlDelayNanos() {
+        return crawlDelayNanos;
+    }
+}
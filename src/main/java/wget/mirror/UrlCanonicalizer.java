@@ -0,0 +1,356 @@
+package wget.mirror;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// One spelling per http(s) resource, so the frontier, the visited set and the local path mapping agree
+// on what counts as the same URL: scheme and host lowercased, default port and fragment dropped,
+// dot-segments removed (RFC 3986 5.2.4), percent-encoding normalized (unreserved characters decoded,
+// hex digits uppercased, characters that are not allowed encoded) and, optionally, query parameters
+// sorted. A trailing slash is kept: it changes what relative links on the page resolve against.
+//
+// Crawls run every link through here, so the work happens in one pass over a per-thread buffer and a
+// URL that is already canonical comes back as the same instance without allocating.
+public class UrlCanonicalizer {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+    // ASCII characters copied as they are: unreserved plus the delimiters allowed in a path (RFC 3986 pchar
+    // and '/'); a query additionally allows '?'
+    private static final boolean[] PATH_CHARS = new boolean[128];
+    private static final boolean[] QUERY_CHARS = new boolean[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            PATH_CHARS[c] = isUnreserved(c) || "/:@!$&'()*+,;=".indexOf(c) >= 0;
+            QUERY_CHARS[c] = PATH_CHARS[c] || c == '?';
+        }
+    }
+
+    private final boolean sortQuery;
+
+    public UrlCanonicalizer() {
+        this(false);
+    }
+
+    public UrlCanonicalizer(boolean sortQuery) {
+        this.sortQuery = sortQuery;
+    }
+
+    // Canonical form of an absolute http(s) URL, or null if it is not one
+    public String canonicalize(String url) {
+        if (url == null) {
+            return null;
+        }
+        int start = 0;
+        int end = url.length();
+        while (start < end && url.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && url.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        boolean https;
+        if (url.regionMatches(true, start, "http://", 0, 7)) {
+            https = false;
+            start += 7;
+        } else if (url.regionMatches(true, start, "https://", 0, 8)) {
+            https = true;
+            start += 8;
+        } else {
+            return null;
+        }
+
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        out.append(https ? "https://" : "http://");
+
+        int authorityEnd = start;
+        while (authorityEnd < end && "/?#\\".indexOf(url.charAt(authorityEnd)) < 0) {
+            authorityEnd++;
+        }
+        if (!appendAuthority(out, url, start, authorityEnd, https ? 443 : 80)) {
+            return null;
+        }
+
+        int fragment = url.indexOf('#', authorityEnd);
+        if (fragment < 0 || fragment > end) {
+            fragment = end;
+        }
+        appendPathAndQuery(out, out.length(), url, authorityEnd, fragment);
+
+        if (out.length() == url.length() && url.contentEquals(out)) {
+            return url;
+        }
+        return out.toString();
+    }
+
+    // Resolves a link found on the page at base (a canonical URL) to canonical form; null when the link
+    // does not lead to an http(s) resource. A link to a fragment of the page resolves to the page.
+    public String resolve(String base, String link) {
+        if (link == null) {
+            return null;
+        }
+        int start = 0;
+        int end = link.length();
+        while (start < end && link.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && link.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int fragment = link.indexOf('#', start);
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        if (start == end) {
+            return canonicalize(base);
+        }
+
+        if (hasScheme(link, start, end)) {
+            return canonicalize(link.substring(start, end));
+        }
+
+        int authorityStart = base.indexOf("//") + 2;
+        if (link.startsWith("//", start)) {
+            return canonicalize(base.substring(0, authorityStart - 2) + link.substring(start, end));
+        }
+
+        // The base is canonical, so its scheme, authority and directory are copied as they are and only
+        // the link itself goes through the encoder
+        int pathStart = base.indexOf('/', authorityStart);
+        int baseQuery = base.indexOf('?', authorityStart);
+        int baseFragment = base.indexOf('#', authorityStart);
+        int baseEnd = baseQuery >= 0 ? baseQuery : baseFragment >= 0 ? baseFragment : base.length();
+        if (pathStart < 0 || pathStart > baseEnd) {
+            pathStart = baseEnd;
+        }
+
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        out.append(base, 0, pathStart);
+        char first = link.charAt(start);
+        if (first == '?') {
+            out.append(base, pathStart, baseEnd);
+        } else if (first != '/' && first != '\\') {
+            // Everything up to the last slash of the base path, which may be the empty path
+            int lastSlash = base.lastIndexOf('/', baseEnd - 1);
+            if (lastSlash < pathStart) {
+                out.append('/');
+            } else {
+                out.append(base, pathStart, lastSlash + 1);
+            }
+        }
+        appendPathAndQuery(out, pathStart, link, start, end);
+        return out.toString();
+    }
+
+    // Appends the path (after whatever part of it out already holds from pathStart) and query found in
+    // url[start, end), then removes dot-segments from the whole path
+    private void appendPathAndQuery(StringBuilder out, int pathStart, String url, int start, int end) {
+        int query = url.indexOf('?', start);
+        if (query < 0 || query > end) {
+            query = end;
+        }
+
+        appendEncoded(out, url, start, query, false);
+        if (out.length() == pathStart) {
+            out.append('/');
+        } else if (out.indexOf("/.", pathStart) >= 0) {
+            removeDotSegments(out, pathStart);
+        }
+
+        if (query + 1 < end) {
+            int queryStart = out.length() + 1;
+            out.append('?');
+            appendEncoded(out, url, query + 1, end, true);
+            if (sortQuery) {
+                sortParameters(out, queryStart);
+            }
+        }
+    }
+
+    // userinfo@host:port with the host lowercased and a default or empty port dropped
+    private static boolean appendAuthority(StringBuilder out, String url, int start, int end, int defaultPort) {
+        int at = url.lastIndexOf('@', end - 1);
+        if (at >= start) {
+            out.append(url, start, at + 1);
+            start = at + 1;
+        }
+
+        int hostEnd = end;
+        if (start < end && url.charAt(start) == '[') {
+            int close = url.indexOf(']', start);
+            if (close < 0 || close >= end) {
+                return false;
+            }
+            hostEnd = close + 1;
+        } else {
+            int colon = url.indexOf(':', start);
+            if (colon >= 0 && colon < end) {
+                hostEnd = colon;
+            }
+        }
+        if (hostEnd == start) {
+            return false;
+        }
+        int hostStart = out.length();
+        out.append(url, start, hostEnd);
+        for (int i = hostStart; i < out.length(); i++) {
+            char c = out.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                out.setCharAt(i, (char) (c + ('a' - 'A')));
+            }
+        }
+
+        if (hostEnd < end) {
+            if (url.charAt(hostEnd) != ':') {
+                return false;
+            }
+            int port = 0;
+            for (int i = hostEnd + 1; i < end; i++) {
+                char c = url.charAt(i);
+                if (c < '0' || c > '9' || port > 65535) {
+                    return false;
+                }
+                port = port * 10 + (c - '0');
+            }
+            if (hostEnd + 1 < end && port != defaultPort) {
+                if (port > 65535) {
+                    return false;
+                }
+                out.append(':').append(port);
+            }
+        }
+        return true;
+    }
+
+    // Copies a path or query: escapes of unreserved characters are decoded, other escapes get
+    // uppercase hex, and characters that may not appear in a URL are UTF-8 percent-encoded
+    private static void appendEncoded(StringBuilder out, String url, int start, int end, boolean query) {
+        boolean[] allowed = query ? QUERY_CHARS : PATH_CHARS;
+        int run = start;
+        for (int i = start; i < end; i++) {
+            char c = url.charAt(i);
+            if (c < 128 && allowed[c]) {
+                continue;
+            }
+            // Runs of characters that need no change are copied in one go
+            out.append(url, run, i);
+            if (c == '%') {
+                int high = i + 2 < end ? hexValue(url.charAt(i + 1)) : -1;
+                int low = high >= 0 ? hexValue(url.charAt(i + 2)) : -1;
+                if (low < 0) {
+                    out.append("%25");
+                } else {
+                    char decoded = (char) (high << 4 | low);
+                    if (isUnreserved(decoded)) {
+                        out.append(decoded);
+                    } else {
+                        out.append('%').append(HEX[high]).append(HEX[low]);
+                    }
+                    i += 2;
+                }
+            } else if (c == '\\' && !query) {
+                // What browsers make of a backslash in an http path
+                out.append('/');
+            } else if (c < 0x80) {
+                appendEscape(out, c);
+            } else {
+                int codePoint = url.codePointAt(i);
+                int count = Character.charCount(codePoint);
+                for (byte b : url.substring(i, i + count).getBytes(StandardCharsets.UTF_8)) {
+                    appendEscape(out, b & 0xff);
+                }
+                i += count - 1;
+            }
+            run = i + 1;
+        }
+        out.append(url, run, end);
+    }
+
+    private static void appendEscape(StringBuilder out, int b) {
+        out.append('%').append(HEX[b >> 4]).append(HEX[b & 0xf]);
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    // In-place remove_dot_segments over the path that starts at from with a '/'
+    static void removeDotSegments(StringBuilder path, int from) {
+        int read = from;
+        int write = from;
+        int end = path.length();
+        while (read < end) {
+            int next = read + 1;
+            while (next < end && path.charAt(next) != '/') {
+                next++;
+            }
+            int length = next - read - 1;
+            boolean dot = length == 1 && path.charAt(read + 1) == '.';
+            boolean dotDot = length == 2 && path.charAt(read + 1) == '.' && path.charAt(read + 2) == '.';
+
+            if (dot || dotDot) {
+                if (dotDot) {
+                    while (write > from && path.charAt(--write) != '/') {
+                        // Back to the start of the previous segment
+                    }
+                }
+                if (next == end) {
+                    // "/a/." and "/a/b/.." name a directory
+                    path.setCharAt(write++, '/');
+                }
+            } else {
+                for (int i = read; i < next; i++) {
+                    path.setCharAt(write++, path.charAt(i));
+                }
+            }
+            read = next;
+        }
+        if (write == from) {
+            path.setCharAt(write++, '/');
+        }
+        path.setLength(write);
+    }
+
+    // Orders a=1&b=2 style parameters, so links that differ only in parameter order are one URL
+    private static void sortParameters(StringBuilder out, int from) {
+        if (out.indexOf("&", from) < 0) {
+            return;
+        }
+        String[] parameters = out.substring(from).split("&", -1);
+        Arrays.sort(parameters);
+        out.setLength(from);
+        out.append(String.join("&", parameters));
+    }
+
+    private static boolean hasScheme(String link, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = link.charAt(i);
+            if (c == ':') {
+                return i > start;
+            }
+            boolean schemeChar = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || (i > start && ((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.'));
+            if (!schemeChar) {
+                return false;
+            }
+        }
+        return false;
+    }
+}
@@ -1,154 +1,683 @@
 package wget.mirror;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
+import wget.download.ChunkListener;
+import wget.download.DiskWriter;
 import wget.download.FileManager;
+import wget.download.HostCircuitBreakers;
+import wget.download.HostRateLimits;
+import wget.download.RetryPolicy;
+import wget.utils.BufferPool;
+import wget.utils.FormatUtils;
+import wget.utils.HttpStatusException;
+import wget.utils.Metrics;
 import wget.utils.NetworkUtils;
+import wget.utils.VirtualThreads;
 
 public class WebsiteMirror {
     private final URI baseUri;
     private final String baseDomain;
     private final Path mirrorDirectory;
     private final HtmlParser htmlParser;
+    private final UrlCanonicalizer canonicalizer;
     private final boolean convertLinks;
-
-    private final Queue<String> urlQueue = new LinkedList<>();
-    private final Map<String, String> urlToLocalPathMap = new HashMap<>();
+    private final int jobs;
+    private final MirrorCache cache;
+    private final HostRateLimits rateLimits;
+    private final boolean virtualThreads;
+    private final CrawlState state;
+    // With --dedup (or a mirror deduplicated before), null otherwise
+    private final ContentStore store;
+    private final RetryPolicy retries;
+    private final HostCircuitBreakers breakers;
+
+    private final HostScheduler scheduler;
+    // Local paths follow from URLs, so the crawl keeps a count of saved files rather than a URL->path
+    // map; only --convert-links needs more: which targets were saved and which pages to patch
+    private final AtomicInteger savedFiles = new AtomicInteger();
+    private final FingerprintSet savedTargets = new FingerprintSet();
+    private final Queue<String> savedPages = new ConcurrentLinkedQueue<>();
+    // After --resume: URLs that were mid-download when the crawl stopped, whose files may be truncated
+    private final FingerprintSet interruptedUrls = new FingerprintSet();
+    // URLs that were queued but whose processing has not finished yet
+    private final AtomicInteger pendingUrls = new AtomicInteger();
+    // With --convert-links: URLs that were not saved, whose inline-converted links must be undone
+    private final Set<String> failedUrls = ConcurrentHashMap.newKeySet();
+    // Tries so far of URLs that have failed and are waiting to be retried
+    private final Map<String, Integer> attempts = new ConcurrentHashMap<>();
+
+    private static final long POLL_INTERVAL_MS = 100;
+    private static final int SCAN_BUFFER_SIZE = 8192;
 
     private static final Pattern HTML_PATTERN = Pattern.compile(
             "\\.(html?|xhtml|shtml)$", Pattern.CASE_INSENSITIVE);
 
     public WebsiteMirror(String url, List<String> rejectedExtensions,
             List<String> excludedPaths, boolean convertLinks) throws MalformedURLException {
+        this(url, rejectedExtensions, excludedPaths, convertLinks, 1, null, false, false, false, true,
+                new RetryPolicy());
+    }
+
+    // rateLimits may be null for an unthrottled crawl; otherwise all workers share its buckets.
+    // sortQuery makes URLs that differ only in the order of their query parameters one resource;
+    // dedup stores identical files once (see ContentStore); obeyRobots honors robots.txt; retries
+    // decides which failed URLs are queued again.
+    public WebsiteMirror(String url, List<String> rejectedExtensions, List<String> excludedPaths,
+            boolean convertLinks, int jobs, HostRateLimits rateLimits, boolean virtualThreads,
+            boolean sortQuery, boolean dedup, boolean obeyRobots, RetryPolicy retries)
+            throws MalformedURLException {
+        if (jobs < 1) {
+            throw new IllegalArgumentException("Number of jobs must be at least 1");
+        }
+
         this.baseUri = normalizeToUri(url);
         this.baseDomain = this.baseUri.getHost().toLowerCase();
         this.mirrorDirectory = createMirrorDirectory();
-        this.htmlParser = new HtmlParser(rejectedExtensions, excludedPaths);
+        this.canonicalizer = new UrlCanonicalizer(sortQuery);
+        this.htmlParser = new HtmlParser(rejectedExtensions, excludedPaths, canonicalizer);
         this.convertLinks = convertLinks;
+        this.jobs = jobs;
+        this.cache = new MirrorCache(mirrorDirectory);
+        this.rateLimits = rateLimits;
+        this.virtualThreads = virtualThreads;
+        this.state = new CrawlState(mirrorDirectory);
+        this.scheduler = new HostScheduler(obeyRobots);
+        ContentStore contentStore = new ContentStore(mirrorDirectory);
+        this.store = dedup || contentStore.exists() ? contentStore : null;
+        this.retries = retries;
+        this.breakers = new HostCircuitBreakers(retries.getTries());
     }
 
     public void mirror() throws IOException {
+        mirror(false);
+    }
+
+    // With resume, a crawl that was stopped part way continues from its log (see CrawlState)
+    public void mirror(boolean resume) throws IOException {
         System.out.printf("Starting mirror of %s%n", baseUri);
         System.out.printf("Saving to directory: %s%n", mirrorDirectory);
 
         Files.createDirectories(mirrorDirectory);
-        urlQueue.add(baseUri.toString());
+        cache.load();
+        if (store != null) {
+            System.out.println("Deduplicating identical files into " + ContentStore.DIRECTORY);
+        }
+        if (cache.size() > 0) {
+            System.out.printf("Revalidating against %d cached entries%n", cache.size());
+        }
 
-        while (!urlQueue.isEmpty()) {
-            String currentUrl = urlQueue.poll();
+        boolean resuming = resume && state.exists();
+        if (resuming) {
+            restore();
+        } else if (resume) {
+            System.out.println("No interrupted mirror to resume; starting from the beginning.");
+        }
+        state.open(resuming);
+        // A no-op when the log already has it
+        enqueue(canonicalizer.canonicalize(baseUri.toString()));
 
-            if (htmlParser.wasVisited(currentUrl)) {
+        try {
+            crawlAll();
+        } finally {
+            state.close();
+        }
+
+        cache.save();
+        if (store != null) {
+            store.prune();
+        }
+
+        if (convertLinks) {
+            finishConversion();
+        }
+        state.delete();
+
+        System.out.printf("Mirror complete. %d files downloaded.%n", savedFiles.get());
+        if (store != null && store.duplicates() > 0) {
+            System.out.printf("Deduplicated %d files, %s saved.%n", store.duplicates(),
+                    FormatUtils.formatBytes(store.savedBytes()));
+        }
+    }
+
+    private void crawlAll() throws IOException {
+        if (jobs == 1) {
+            crawl();
+        } else {
+            System.out.printf("Crawling with %d parallel jobs%n", jobs);
+            ExecutorService workers = newWorkerPool();
+            for (int i = 0; i < jobs; i++) {
+                workers.submit(this::crawl);
+            }
+            workers.shutdown();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new IOException("Mirror interrupted", e);
+            }
+        }
+    }
+
+    // Rebuilds the visited set, frontier and saved-file bookkeeping from the log of an earlier run
+    private void restore() throws IOException {
+        state.replay(new CrawlState.Replay() {
+            @Override
+            public void queued(String url) {
+                htmlParser.markAsVisited(url);
+            }
+
+            @Override
+            public void pending(String url, boolean started) {
+                if (started) {
+                    interruptedUrls.add(url);
+                }
+                pendingUrls.incrementAndGet();
+                scheduler.add(url);
+            }
+
+            @Override
+            public void saved(String url) {
+                try {
+                    String localPath = generateLocalPath(url);
+                    recordSaved(localPath, isHtmlFile(url, localPath));
+                } catch (MalformedURLException e) {
+                    // It was saved under this URL, so it parsed then
+                }
+            }
+
+            @Override
+            public void failed(String url) {
+                if (convertLinks) {
+                    failedUrls.add(url);
+                }
+            }
+        });
+        System.out.printf("Resuming: %d files already saved, %d URLs left in the queue%n",
+                savedFiles.get(), pendingUrls.get());
+    }
+
+    private ExecutorService newWorkerPool() {
+        if (virtualThreads) {
+            ExecutorService workers = VirtualThreads.newPerTaskExecutor();
+            if (workers != null) {
+                return workers;
+            }
+            System.err.printf("Warning: %s; using platform threads%n", VirtualThreads.unsupportedReason());
+        }
+        return Executors.newFixedThreadPool(jobs);
+    }
+
+    private void crawl() {
+        while (pendingUrls.get() > 0) {
+            String currentUrl;
+            try {
+                currentUrl = scheduler.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (currentUrl == null) {
                 continue;
             }
+            Metrics.queueDepth(scheduler.size());
 
+            long admitted = breakers.admit(currentUrl);
+            if (admitted > 0) {
+                // Its host is paused; back in the queue without counting a try
+                scheduler.pause(currentUrl, admitted);
+                scheduler.add(currentUrl);
+                continue;
+            }
+
+            CompletableFuture<Void> saved = null;
+            boolean retrying = false;
+            // An admitted request may be the host's half-open probe, which every other request to
+            // the host waits for; it must be reported whichever way the URL ends
+            boolean reported = admitted < 0;
             try {
-                processUrl(currentUrl);
-                htmlParser.markAsVisited(currentUrl);
+                state.started(currentUrl);
+                if (admitted < 0) {
+                    System.err.printf("Skipping (host not responding): %s%n", currentUrl);
+                } else if (scheduler.allows(currentUrl)) {
+                    saved = processUrl(currentUrl);
+                } else {
+                    System.out.printf("Skipping (robots.txt): %s%n", currentUrl);
+                }
             } catch (IOException e) {
-                System.err.printf("Error processing %s: %s%n", currentUrl, e.getMessage());
+                reported = true;
+                retrying = retry(currentUrl, e);
+                if (!retrying) {
+                    System.err.printf("Error processing %s: %s%n", currentUrl, e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                // A pool worker's exception would vanish with its discarded Future and end the worker;
+                // the URL fails and the worker goes on
+                System.err.printf("Error processing %s: %s%n", currentUrl, e);
+            } finally {
+                if (!reported) {
+                    // Saved, skipped by robots.txt or failed in our own code: none of it says the host is down
+                    breakers.succeeded(currentUrl);
+                }
+                // A URL being retried stays pending; the scheduler hands it out again after the backoff
+                if (!retrying) {
+                    attempts.remove(currentUrl);
+                    if (saved != null) {
+                        // With --fsync the file is only saved once its batch is flushed; the worker
+                        // moves on meanwhile
+                        saved.whenComplete((done, e) -> {
+                            if (e != null) {
+                                System.err.printf("Error processing %s: could not sync: %s%n", currentUrl,
+                                        e.getMessage());
+                            }
+                            finish(currentUrl, e == null);
+                        });
+                    } else {
+                        finish(currentUrl, false);
+                    }
+                }
             }
         }
+    }
 
-        if (convertLinks) {
-            System.out.println("Converting links for offline viewing...");
-            new LinkConverter(urlToLocalPathMap).convertAllFiles();
+    private void finish(String url, boolean saved) {
+        if (saved) {
+            state.saved(url);
+        } else {
+            state.failed(url);
+            if (convertLinks) {
+                failedUrls.add(url);
+            }
         }
+        pendingUrls.decrementAndGet();
+    }
+
+    // Queues url again when its failure is worth another try; false when it has failed for good
+    private boolean retry(String url, IOException e) {
+        boolean retryable = RetryPolicy.isRetryable(e);
+        long pause = 0;
+        if (retryable) {
+            pause = breakers.failed(url);
+        } else {
+            breakers.succeeded(url);
+        }
+
+        int attempt = attempts.merge(url, 1, Integer::sum);
+        if (!retries.shouldRetry(e, attempt)) {
+            return false;
+        }
+        if (pause > 0) {
+            scheduler.pause(url, pause);
+        }
+        long delay = retries.delayNanos(e, attempt);
+        Metrics.retried();
+        System.err.printf("Retrying %s in %.1fs (attempt %d of %d): %s%n", url, delay / 1e9, attempt + 1,
+                retries.getTries(), e.getMessage());
+        // Its file may be partly written, so the next try must not revalidate against it
+        interruptedUrls.add(url);
+        scheduler.addLater(url, delay);
+        return true;
+    }
 
-        System.out.printf("Mirror complete. %d files downloaded.%n", urlToLocalPathMap.size());
+    private void enqueue(String url) {
+        // Claiming the URL before queueing it keeps every URL in the frontier at most once
+        if (htmlParser.markAsVisited(url)) {
+            state.queued(url);
+            pendingUrls.incrementAndGet();
+            scheduler.add(url);
+        }
     }
 
-    private void processUrl(String url) throws IOException {
+    // Null when nothing was saved; otherwise completes once the file is on disk for good
+    private CompletableFuture<Void> processUrl(String url) throws IOException {
         System.out.printf("Processing: %s%n", url);
 
-        String localPath = downloadFile(url);
-        if (localPath == null) {
-            return;
-        }
+        String localPath = generateLocalPath(url);
+        Set<String> links = isHtmlFile(url, localPath) ? new LinkedHashSet<>() : null;
 
-        urlToLocalPathMap.put(url, localPath);
+        if (!downloadFile(url, localPath, links)) {
+            return null;
+        }
+        recordSaved(localPath, links != null);
+        return DiskWriter.sync(Paths.get(localPath));
+    }
 
-        if (isHtmlFile(url, localPath)) {
-            String content = Files.readString(Paths.get(localPath));
-            Set<String> discoveredUrls = htmlParser.parseDocument(content, url);
+    private void recordSaved(String localPath, boolean page) {
+        savedFiles.incrementAndGet();
+        // A page reached under several URLs (e.g. with fragments) is listed once
+        if (convertLinks && savedTargets.add(LinkConverter.targetKey(localPath)) && page) {
+            savedPages.add(localPath);
+        }
+    }
 
-            for (String discoveredUrl : discoveredUrls) {
-                if (isSameDomain(discoveredUrl) && !htmlParser.wasVisited(discoveredUrl)) {
-                    urlQueue.add(discoveredUrl);
-                }
-            }
+    private void follow(String url) {
+        // Links from the parser are canonical already; ones replayed from an older cache may not be
+        url = canonicalizer.canonicalize(url);
+        if (htmlParser.shouldIncludeUrl(url) && isSameDomain(url)) {
+            enqueue(url);
         }
     }
 
-    private String downloadFile(String url) throws IOException {
-        String localPath = generateLocalPath(url);
+    // links is null for non-HTML resources; for pages it collects every link so the cache can replay them
+    private boolean downloadFile(String url, String localPath, Set<String> links) throws IOException {
         Path localFilePath = Paths.get(localPath);
 
         Files.createDirectories(localFilePath.getParent());
 
-        if (Files.exists(localFilePath)) {
-            System.out.printf("File already exists: %s%n", localPath);
-            return localPath;
-        }
+        // Links are followed while the page is still arriving, so workers can start on them right away,
+        // and with --convert-links they are rewritten to their local paths on the way to disk
+        LinkScanner scanner = links == null ? null : htmlParser.newLinkScanner(url, link -> {
+            links.add(link);
+            follow(link);
+        }, convertLinks ? link -> inlineLink(localPath, link) : null);
 
         try {
+            MirrorCache.Entry cached = cache.get(url);
+            boolean exists = Files.exists(localFilePath);
+
             HttpURLConnection conn = NetworkUtils.createConnection(url, "GET");
+            NetworkUtils.acceptCompressed(conn);
+            // A file the previous run was still writing is no basis for a conditional request
+            if (exists && !interruptedUrls.contains(url)) {
+                addValidators(conn, cached, localFilePath);
+            }
+            Metrics.Request timing = Metrics.startRequest(conn, url);
             int status = conn.getResponseCode();
 
+            if (timing != null && status != HttpURLConnection.HTTP_OK) {
+                timing.finish(0, "file", localPath);
+            }
+
+            if (exists && status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                NetworkUtils.release(conn);
+                System.out.printf("Not modified: %s%n", localPath);
+                if (cached != null && !(convertLinks && scanner != null)) {
+                    if (scanner != null) {
+                        cached.links.forEach(link -> {
+                            links.add(link);
+                            follow(link);
+                        });
+                    }
+                } else {
+                    // Mirrored before the cache existed: index it now so the next run can skip the scan.
+                    // With --convert-links the page may predate conversion, so it goes through the scanner.
+                    MessageDigest digest = sha256();
+                    if (scanner != null && convertLinks) {
+                        convertFile(localFilePath, hashing(digest, null), scanner);
+                    } else if (scanner != null) {
+                        scanFile(localFilePath, hashing(digest, scanner));
+                        scanner.finish();
+                    }
+                    if (cached == null) {
+                        cache.put(url, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"),
+                                Files.size(localFilePath), scanner != null ? hex(digest) : null,
+                                links != null ? links : List.of());
+                    }
+                }
+                return true;
+            }
+
             if (status != HttpURLConnection.HTTP_OK) {
+                long retryAfter = NetworkUtils.retryAfterNanos(conn);
+                NetworkUtils.release(conn);
+                HttpStatusException failure = new HttpStatusException("Status " + status, status, retryAfter);
+                if (failure.isTransient()) {
+                    throw failure;
+                }
+                if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                    // Gone from the site, so its validators and links are no use to the next run
+                    cache.remove(url);
+                }
                 System.err.printf("Warning: %s returned status %d%n", url, status);
-                return null;
+                return false;
             }
 
-            String fileName = localFilePath.getFileName().toString();
+            // Deduplicated files may share their inode with others, so they are never written in place
+            Path target = store != null ? ContentStore.partFile(localFilePath) : localFilePath;
+            String fileName = target.getFileName().toString();
             String directory = localFilePath.getParent().toString() + "/";
 
-            FileManager fileManager = new FileManager(fileName, directory);
-            fileManager.save(conn, conn.getContentLength(), true, false, null);
+            MessageDigest digest = sha256();
+            // Pages are parsed and the mirror is browsed offline, so every file is saved decoded
+            FileManager fileManager = new FileManager(fileName, directory, hashing(digest, convertLinks ? null : scanner),
+                    convertLinks ? scanner : null, false);
+            String hash;
+            long received;
+            try {
+                received = fileManager.save(conn, conn.getContentLengthLong(), true, false,
+                        rateLimits != null ? rateLimits.forUrl(url) : null);
+                if (scanner != null) {
+                    scanner.finish();
+                    Metrics.parsed(url, scanner.scanNanos(), links.size());
+                }
+                hash = hex(digest);
+
+                if (store != null) {
+                    // The hash covers the body as received: a converted page is not what it describes
+                    if (convertLinks && scanner != null) {
+                        Files.move(target, localFilePath, StandardCopyOption.REPLACE_EXISTING);
+                    } else if (store.commit(target, localFilePath, hash)) {
+                        System.out.printf("Duplicate: %s%n", localPath);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                if (timing != null) {
+                    timing.failed(e);
+                }
+                if (target != localFilePath) {
+                    Files.deleteIfExists(target);
+                }
+                throw e;
+            }
+            if (timing != null) {
+                timing.finish(received, "file", localPath);
+            }
+
+            cache.put(url, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"),
+                    Files.size(localFilePath), hash, links != null ? links : List.of());
 
             System.out.printf("Downloaded: %s -> %s%n", url, localPath);
-            return localPath;
+            return true;
 
         } catch (Exception e) {
             throw new IOException("Failed to download " + url + ": " + e.getMessage(), e);
         }
     }
 
+    // Where the page at fromPath should point for url, or null to leave the link alone. Local paths
+    // follow from the URL alone, so the link can be written before its target is fetched.
+    private String inlineLink(String fromPath, String url) {
+        if (!isSameDomain(url) || !htmlParser.isAllowed(url)) {
+            return null;
+        }
+        try {
+            return LinkConverter.relativePath(fromPath, generateLocalPath(url));
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    // Pages were converted as they were saved; links to targets that failed are pointed back at the web
+    private void finishConversion() {
+        Map<String, String> missing = new HashMap<>();
+        for (String url : failedUrls) {
+            try {
+                String target = LinkConverter.targetKey(generateLocalPath(url));
+                if (!savedTargets.contains(target)) {
+                    missing.putIfAbsent(target, url);
+                }
+            } catch (MalformedURLException e) {
+                // Never had a local path, so no page links to one
+            }
+        }
+        if (!missing.isEmpty()) {
+            System.out.printf("Restoring links to %d missing files...%n", missing.size());
+            LinkConverter.restoreLinks(savedPages, missing);
+        }
+    }
+
+    private void addValidators(HttpURLConnection conn, MirrorCache.Entry cached, Path localFilePath)
+            throws IOException {
+        if (cached != null && cached.etag != null) {
+            conn.setRequestProperty("If-None-Match", cached.etag);
+        }
+        if (cached != null && cached.lastModified != null) {
+            conn.setRequestProperty("If-Modified-Since", cached.lastModified);
+        } else if (cached == null || cached.etag == null) {
+            ZonedDateTime modified = Files.getLastModifiedTime(localFilePath).toInstant().atZone(ZoneOffset.UTC);
+            conn.setRequestProperty("If-Modified-Since", DateTimeFormatter.RFC_1123_DATE_TIME.format(modified));
+        }
+    }
+
+    private static ChunkListener hashing(MessageDigest digest, LinkScanner scanner) {
+        return (data, offset, length) -> {
+            digest.update(data, offset, length);
+            if (scanner != null) {
+                scanner.feed(data, offset, length);
+            }
+        };
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void scanFile(Path file, ChunkListener listener) throws IOException {
+        ByteBuffer pooled = BufferPool.acquire(SCAN_BUFFER_SIZE);
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = pooled.array();
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                listener.onChunk(buffer, 0, bytesRead);
+            }
+        } finally {
+            BufferPool.release(pooled);
+        }
+    }
+
+    // Runs a page already on disk through the converting scanner, replacing it only if a link changed
+    private void convertFile(Path file, ChunkListener listener, LinkScanner scanner) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        ByteBuffer pooled = BufferPool.acquire(SCAN_BUFFER_SIZE);
+        try (InputStream in = Files.newInputStream(file);
+                OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            byte[] buffer = pooled.array();
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                listener.onChunk(buffer, 0, bytesRead);
+                scanner.filter(buffer, 0, bytesRead, out);
+            }
+            scanner.finish(out);
+        } finally {
+            BufferPool.release(pooled);
+        }
+
+        if (scanner.hasRewritten()) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            Files.delete(tmp);
+        }
+    }
+
     private String generateLocalPath(String url) throws MalformedURLException {
         try {
             URI uri = new URI(url);
-            String path = uri.getPath();
+            String path = localSegments(uri.getRawPath());
 
-            if (path.isEmpty() || path.equals("/")) {
-                path = "/index.html";
+            if (path.isEmpty() || path.endsWith("/")) {
+                path += "index.html";
             }
 
             if (path.startsWith("/")) {
                 path = path.substring(1);
             }
 
-            Path localPath = mirrorDirectory.resolve(path);
+            Path localPath = mirrorDirectory.resolve(path + querySuffix(uri));
+            if (!localPath.normalize().startsWith(mirrorDirectory.normalize())) {
+                throw new MalformedURLException("URL maps outside the mirror directory: " + url);
+            }
             return localPath.toString();
 
-        } catch (URISyntaxException e) {
+        } catch (URISyntaxException | InvalidPathException e) {
             throw new MalformedURLException("Invalid URL: " + url);
         }
     }
 
+    // The URL path decoded one segment at a time, so an encoded "/" (%2F) stays inside its segment
+    // and a segment that decodes to "." or ".." (%2E%2E) is kept as a name rather than followed
+    private static String localSegments(String rawPath) throws URISyntaxException {
+        if (rawPath == null || rawPath.indexOf('%') < 0) {
+            return rawPath == null ? "" : rawPath;
+        }
+        String[] segments = rawPath.split("/", -1);
+        StringBuilder path = new StringBuilder(rawPath.length());
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                path.append('/');
+            }
+            String segment = segments[i];
+            if (segment.indexOf('%') >= 0) {
+                segment = new URI("/" + segment).getPath().substring(1).replace("/", "%2F");
+                if (segment.equals(".") || segment.equals("..")) {
+                    segment = segment.replace(".", "%2E");
+                }
+            }
+            path.append(segment);
+        }
+        return path.toString();
+    }
+
+    // page.php?id=1 and page.php?id=2 are different resources, so the query goes into the file name,
+    // after an '@' and with '/' escaped so it cannot open a directory
+    private static String querySuffix(URI uri) {
+        String query = uri.getRawQuery();
+        return query == null || query.isEmpty() ? "" : "@" + query.replace("/", "%2F");
+    }
+
     private Path createMirrorDirectory() {
         String host = baseDomain;
         if (host.startsWith("www.")) {
@@ -163,14 +692,7 @@ public class WebsiteMirror {
                 url = "http://" + url;
             }
 
-            URI uri = new URI(url);
-
-            String path = uri.getPath();
-            if (path.endsWith("/") && path.length() > 1) {
-                path = path.substring(0, path.length() - 1);
-            }
-
-            return new URI(uri.getScheme(), uri.getAuthority(), path, uri.getQuery(), uri.getFragment());
+            return new URI(url);
 
         } catch (URISyntaxException e) {
             throw new MalformedURLException("Invalid URL: " + url);
@@ -188,8 +710,13 @@ public class WebsiteMirror {
     }
 
     private boolean isHtmlFile(String url, String localPath) {
-        String lower = localPath.toLowerCase();
-        return HTML_PATTERN.matcher(lower).find();
+        try {
+            // Judge by the name without the query suffix: page.html@x=1 is still a page
+            String name = localPath.substring(0, localPath.length() - querySuffix(new URI(url)).length());
+            return HTML_PATTERN.matcher(name.toLowerCase()).find();
+        } catch (URISyntaxException e) {
+            return false;
+        }
     }
 
     public static List<String> parseCommaSeparatedList(String input) {
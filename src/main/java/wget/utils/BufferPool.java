@@ -0,0 +1,127 @@
+package wget.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Transfer buffers shared by every download and mirror worker, so a crawl of thousands of files
+// reuses a few dozen buffers instead of allocating one or more per file. Sizes come in powers of two
+// from 8 KB to 1 MB: a small asset takes an 8 KB buffer and a large body grows through the classes
+// as FileManager doubles its batch. Each class is a fixed array of slots claimed and returned by
+// compare-and-set, so taking or returning a buffer allocates nothing and never blocks; with
+// hundreds of virtual threads a thread-local cache would rarely be hit again. A class keeps at most
+// about 4 MB; buffers returned to a full class are left to the GC.
+//
+// Buffers are heap buffers: every caller reads from an InputStream into the backing array.
+public class BufferPool {
+    private static final int MIN_SHIFT = 13;
+    private static final int MAX_SHIFT = 20;
+    private static final int MAX_SLOTS = 64;
+    private static final int CLASS_BYTES = 4 * 1024 * 1024;
+
+    public static final int MIN_SIZE = 1 << MIN_SHIFT;
+    public static final int MAX_SIZE = 1 << MAX_SHIFT;
+
+    private static final AtomicReferenceArray<ByteBuffer>[] CLASSES = createClasses();
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder ALLOCATED_BYTES = new LongAdder();
+    private static final LongAdder DROPPED = new LongAdder();
+
+    // Generic arrays cannot be created, so the array is made raw and cast
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static AtomicReferenceArray<ByteBuffer>[] createClasses() {
+        AtomicReferenceArray<ByteBuffer>[] classes = new AtomicReferenceArray[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new AtomicReferenceArray<>(Math.min(MAX_SLOTS, CLASS_BYTES >> (MIN_SHIFT + i)));
+        }
+        return classes;
+    }
+
+    // A cleared buffer of at least size bytes, rounded up to its class; larger than MAX_SIZE is
+    // allocated to fit and not kept. Give it back with release once nothing refers to it.
+    public static ByteBuffer acquire(int size) {
+        int index = classOf(size);
+        if (index < 0) {
+            MISSES.increment();
+            ALLOCATED_BYTES.add(size);
+            return ByteBuffer.allocate(size);
+        }
+
+        AtomicReferenceArray<ByteBuffer> slots = CLASSES[index];
+        int length = slots.length();
+        int start = startSlot(length);
+        for (int i = 0; i < length; i++) {
+            int slot = (start + i) % length;
+            ByteBuffer buffer = slots.get(slot);
+            if (buffer != null && slots.compareAndSet(slot, buffer, null)) {
+                HITS.increment();
+                buffer.clear();
+                return buffer;
+            }
+        }
+
+        int capacity = 1 << (MIN_SHIFT + index);
+        MISSES.increment();
+        ALLOCATED_BYTES.add(capacity);
+        return ByteBuffer.allocate(capacity);
+    }
+
+    // Null, oversized and foreign buffers are ignored, so callers can release unconditionally
+    public static void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.isDirect() || buffer.isReadOnly()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        if (Integer.bitCount(capacity) != 1 || capacity < MIN_SIZE || capacity > MAX_SIZE) {
+            return;
+        }
+
+        AtomicReferenceArray<ByteBuffer> slots = CLASSES[Integer.numberOfTrailingZeros(capacity) - MIN_SHIFT];
+        int length = slots.length();
+        int start = startSlot(length);
+        for (int i = 0; i < length; i++) {
+            int slot = (start + i) % length;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, buffer)) {
+                return;
+            }
+        }
+        DROPPED.increment();
+    }
+
+    public static long hits() {
+        return HITS.sum();
+    }
+
+    public static long misses() {
+        return MISSES.sum();
+    }
+
+    // Bytes allocated on misses; flat once a run's buffers are all in circulation
+    public static long allocatedBytes() {
+        return ALLOCATED_BYTES.sum();
+    }
+
+    // Buffers returned while their class was full
+    public static long dropped() {
+        return DROPPED.sum();
+    }
+
+    // Each thread starts from its own slot, so threads rarely race for one and a thread usually finds
+    // the buffer it returned last on the first try
+    private static int startSlot(int length) {
+        int hash = System.identityHashCode(Thread.currentThread());
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % length;
+    }
+
+    private static int classOf(int size) {
+        if (size > MAX_SIZE) {
+            return -1;
+        }
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+}
@@ -1,21 +1,37 @@
 package wget.utils;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class FileUtils {
     public static List<String> readFile(String path) throws IOException {
         List<String> urls = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+        forEachUrl(path, urls::add);
+        return urls;
+    }
+
+    // Streams a URL list one line at a time, so its size never matters; "-" reads standard input.
+    // Blank lines and lines starting with # are skipped.
+    public static void forEachUrl(String path, Consumer<String> action) throws IOException {
+        BufferedReader reader = path.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8);
+        try (reader) {
             String line;
             while ((line = reader.readLine()) != null) {
-                urls.add(line.trim());
+                String url = line.trim();
+                if (!url.isEmpty() && !url.startsWith("#")) {
+                    action.accept(url);
+                }
             }
         }
-        return urls;
     }
 
     public static String extractFileName(String url) {
@@ -0,0 +1,80 @@
+package wget.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of non-negative values in the style of HdrHistogram: every power of two is
+// split into 16 linear buckets, so a value is known to within 1/16 whatever its magnitude, in a
+// fixed 976 counters. Recording is an index computation and one atomic increment, with no locks and
+// no allocation; reads walk the counters and may be a few records behind concurrent writers.
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    // The value below which the given fraction (0..1) of records fall, to within one bucket
+    public long percentile(double fraction) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        return highestValue(BUCKETS - 1);
+    }
+
+    // Records known to be at most value; a bucket that straddles value is left out
+    public long countAtOrBelow(long value) {
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && highestValue(i) <= value; i++) {
+            seen += counts.get(i);
+        }
+        return seen;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        long next = (subBucket + 1) << shift;
+        // The top bucket ends at Long.MAX_VALUE, past which the shift wraps
+        return next <= 0 ? Long.MAX_VALUE : next - 1;
+    }
+}
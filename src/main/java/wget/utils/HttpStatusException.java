@@ -0,0 +1,43 @@
+package wget.utils;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+// A response with an unexpected status; schedulers read the code to tell throttling from hard failures
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+    private final long retryAfterNanos;
+
+    public HttpStatusException(String message, int status) {
+        this(message, status, 0);
+    }
+
+    // retryAfterNanos is the server's Retry-After, or 0 without one
+    public HttpStatusException(String message, int status, long retryAfterNanos) {
+        super(message);
+        this.status = status;
+        this.retryAfterNanos = retryAfterNanos;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public long getRetryAfterNanos() {
+        return retryAfterNanos;
+    }
+
+    // Statuses that say "not now" rather than "not ever", so the same request may succeed later
+    public boolean isTransient() {
+        return status == HttpURLConnection.HTTP_CLIENT_TIMEOUT || status == 429
+                || status == HttpURLConnection.HTTP_INTERNAL_ERROR || status == HttpURLConnection.HTTP_BAD_GATEWAY
+                || status == HttpURLConnection.HTTP_UNAVAILABLE || status == HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+    }
+
+    // 429 and 503 are how servers ask clients to slow down
+    public boolean isThrottling() {
+        return status == 429 || status == HttpURLConnection.HTTP_UNAVAILABLE;
+    }
+}
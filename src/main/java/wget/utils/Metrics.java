@@ -0,0 +1,337 @@
+package wget.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Timings and counts for downloads and mirrors, for --events (one JSON object per line per request
+// and parsed page) and --metrics (a Prometheus text file rewritten every few seconds, for the node
+// exporter's textfile collector or a plain scrape). Off unless one of them is given, and then a
+// value costs a histogram increment; no lock is taken except to append an event line.
+public class Metrics {
+    private static final long FLUSH_INTERVAL_MS = 10_000;
+    private static final double[] SECONDS_BUCKETS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+    private static final double[] DEPTH_BUCKETS = { 0, 1, 10, 100, 1000, 10_000, 100_000, 1_000_000 };
+
+    // Microseconds, except the queue depth
+    private static final Histogram DNS = new Histogram();
+    private static final Histogram CONNECT = new Histogram();
+    private static final Histogram FIRST_BYTE = new Histogram();
+    private static final Histogram TRANSFER = new Histogram();
+    private static final Histogram PARSE = new Histogram();
+    private static final Histogram QUEUE_DEPTH = new Histogram();
+    private static final LongAdder BYTES = new LongAdder();
+    private static final LongAdder RETRIES = new LongAdder();
+    private static final AtomicLong CURRENT_QUEUE_DEPTH = new AtomicLong();
+    private static final Map<Integer, LongAdder> RESPONSES = new ConcurrentHashMap<>();
+    private static final LongAdder FAILURES = new LongAdder();
+
+    private static final ReentrantLock EVENTS_LOCK = new ReentrantLock();
+    private static volatile boolean enabled;
+    private static Writer events;
+    private static Path metricsFile;
+    private static Thread flusher;
+
+    // Times one request from name resolution to the end of its body
+    public static final class Request {
+        private final String url;
+        private final long dnsMicros;
+        private final long connectMicros;
+        private final long firstByteMicros;
+        private final long firstByteAt;
+        private final int status;
+
+        // Resolves, connects and waits for the status line, so each step is timed on its own. A
+        // connection the keep-alive pool hands back connects in no time.
+        private Request(HttpURLConnection conn, String url) throws IOException {
+            this.url = url;
+            long start = System.nanoTime();
+            try {
+                // Warms the JVM's address cache, which the connection then resolves from
+                InetAddress.getAllByName(conn.getURL().getHost());
+            } catch (UnknownHostException e) {
+                // connect() reports it
+            }
+            long resolved = System.nanoTime();
+            conn.connect();
+            long connected = System.nanoTime();
+            this.status = conn.getResponseCode();
+            this.firstByteAt = System.nanoTime();
+
+            this.dnsMicros = micros(resolved - start);
+            this.connectMicros = micros(connected - resolved);
+            this.firstByteMicros = micros(firstByteAt - connected);
+            DNS.record(dnsMicros);
+            CONNECT.record(connectMicros);
+            FIRST_BYTE.record(firstByteMicros);
+            RESPONSES.computeIfAbsent(status, code -> new LongAdder()).increment();
+        }
+
+        public int status() {
+            return status;
+        }
+
+        // The body is in; fields are extra name/value pairs for the event
+        public void finish(long bytes, Object... fields) {
+            long transferMicros = micros(System.nanoTime() - firstByteAt);
+            TRANSFER.record(transferMicros);
+            event("request", fields, "url", url, "status", status, "bytes", bytes,
+                    "dns_ms", millis(dnsMicros), "connect_ms", millis(connectMicros),
+                    "first_byte_ms", millis(firstByteMicros), "transfer_ms", millis(transferMicros));
+        }
+
+        public void failed(Exception e) {
+            FAILURES.increment();
+            event("request", new Object[0], "url", url, "status", status, "error", String.valueOf(e.getMessage()));
+        }
+    }
+
+    // Either path may be null; with both null metrics stay off
+    public static void configure(String eventsPath, String metricsPath) throws IOException {
+        if (eventsPath == null && metricsPath == null) {
+            return;
+        }
+        if (eventsPath != null) {
+            events = Files.newBufferedWriter(Paths.get(eventsPath), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        if (metricsPath != null) {
+            metricsFile = Paths.get(metricsPath);
+        }
+        enabled = true;
+
+        flusher = new Thread(Metrics::flushPeriodically, "wget-metrics");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    // Null when metrics are off, so callers can skip the rest of their bookkeeping
+    public static Request startRequest(HttpURLConnection conn, String url) throws IOException {
+        return enabled ? new Request(conn, url) : null;
+    }
+
+    public static void received(long bytes) {
+        if (enabled) {
+            BYTES.add(bytes);
+        }
+    }
+
+    public static void retried() {
+        if (enabled) {
+            RETRIES.increment();
+        }
+    }
+
+    public static void parsed(String url, long nanos, int links) {
+        if (enabled) {
+            long parseMicros = micros(nanos);
+            PARSE.record(parseMicros);
+            event("parse", new Object[0], "url", url, "parse_ms", millis(parseMicros), "links", links);
+        }
+    }
+
+    public static void queueDepth(long depth) {
+        if (enabled) {
+            QUEUE_DEPTH.record(depth);
+            CURRENT_QUEUE_DEPTH.set(depth);
+        }
+    }
+
+    // Flushes the event stream and writes the final metrics file
+    public static void close() {
+        if (!enabled) {
+            return;
+        }
+        enabled = false;
+        flusher.interrupt();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        if (events != null) {
+            try {
+                events.close();
+            } catch (IOException e) {
+                // Already flushed above, or already warned about
+            }
+        }
+    }
+
+    private static void flushPeriodically() {
+        while (enabled) {
+            try {
+                Thread.sleep(FLUSH_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            flush();
+        }
+    }
+
+    private static void flush() {
+        EVENTS_LOCK.lock();
+        try {
+            if (events != null) {
+                events.flush();
+            }
+        } catch (IOException e) {
+            System.err.printf("Warning: could not write events: %s%n", e.getMessage());
+        } finally {
+            EVENTS_LOCK.unlock();
+        }
+
+        if (metricsFile != null) {
+            try {
+                writeMetrics(metricsFile);
+            } catch (IOException e) {
+                System.err.printf("Warning: could not write metrics to %s: %s%n", metricsFile, e.getMessage());
+            }
+        }
+    }
+
+    // extra holds name/value pairs that go after the fixed ones
+    private static void event(String type, Object[] extra, Object... fields) {
+        if (events == null || !enabled) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(256);
+        line.append("{\"ts\":").append(System.currentTimeMillis()).append(",\"event\":\"").append(type).append('"');
+        appendFields(line, fields);
+        appendFields(line, extra);
+        line.append("}\n");
+
+        EVENTS_LOCK.lock();
+        try {
+            events.write(line.toString());
+        } catch (IOException e) {
+            System.err.printf("Warning: could not write events: %s%n", e.getMessage());
+        } finally {
+            EVENTS_LOCK.unlock();
+        }
+    }
+
+    private static void appendFields(StringBuilder line, Object[] fields) {
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            line.append(",\"").append(fields[i]).append("\":");
+            Object value = fields[i + 1];
+            if (value instanceof Number || value instanceof Boolean) {
+                line.append(value);
+            } else {
+                appendJsonString(line, String.valueOf(value));
+            }
+        }
+    }
+
+    private static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    // Prometheus text exposition format; replaced atomically so a scrape never sees half a file
+    private static void writeMetrics(Path file) throws IOException {
+        StringBuilder out = new StringBuilder(4096);
+        appendSeconds(out, "wget_dns_seconds", "Host name resolution time", DNS);
+        appendSeconds(out, "wget_connect_seconds", "TCP and TLS connect time, 0 for a reused connection", CONNECT);
+        appendSeconds(out, "wget_first_byte_seconds", "Time from connected to the response status", FIRST_BYTE);
+        appendSeconds(out, "wget_transfer_seconds", "Time to receive the response body", TRANSFER);
+        appendSeconds(out, "wget_parse_seconds", "Time spent extracting links from a page", PARSE);
+        appendHistogram(out, "wget_queue_depth", "URLs waiting in the crawl queue, sampled per fetch",
+                QUEUE_DEPTH, DEPTH_BUCKETS, 1);
+
+        out.append("# HELP wget_queue_depth_current URLs waiting in the crawl queue\n");
+        out.append("# TYPE wget_queue_depth_current gauge\n");
+        out.append("wget_queue_depth_current ").append(CURRENT_QUEUE_DEPTH.get()).append('\n');
+        appendCounter(out, "wget_received_bytes_total", "Response body bytes received", BYTES.sum());
+        appendCounter(out, "wget_retries_total", "Requests retried", RETRIES.sum());
+        appendCounter(out, "wget_failures_total", "Requests that failed while receiving the body", FAILURES.sum());
+        appendCounter(out, "wget_buffer_pool_hits_total", "Transfer buffers reused from the pool", BufferPool.hits());
+        appendCounter(out, "wget_buffer_pool_misses_total", "Transfer buffers the pool had to allocate",
+                BufferPool.misses());
+        appendCounter(out, "wget_buffer_pool_allocated_bytes_total", "Bytes allocated for transfer buffers",
+                BufferPool.allocatedBytes());
+        appendCounter(out, "wget_buffer_pool_dropped_total", "Buffers let go because their size class was full",
+                BufferPool.dropped());
+
+        out.append("# HELP wget_responses_total Responses by status code\n");
+        out.append("# TYPE wget_responses_total counter\n");
+        for (Map.Entry<Integer, LongAdder> entry : new TreeMap<>(RESPONSES).entrySet()) {
+            out.append("wget_responses_total{code=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue().sum()).append('\n');
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(tmp, out, StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void appendSeconds(StringBuilder out, String name, String help, Histogram histogram) {
+        appendHistogram(out, name, help, histogram, SECONDS_BUCKETS, 1_000_000);
+    }
+
+    // scale converts the recorded unit to the exported one (microseconds to seconds)
+    private static void appendHistogram(StringBuilder out, String name, String help, Histogram histogram,
+            double[] buckets, long scale) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        for (double bound : buckets) {
+            out.append(name).append("_bucket{le=\"").append(bound).append("\"} ")
+                    .append(histogram.countAtOrBelow((long) (bound * scale))).append('\n');
+        }
+        long count = histogram.count();
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(count).append('\n');
+        out.append(name).append("_sum ");
+        if (scale == 1) {
+            out.append(histogram.sum());
+        } else {
+            out.append((double) histogram.sum() / scale);
+        }
+        out.append('\n');
+        out.append(name).append("_count ").append(count).append('\n');
+    }
+
+    private static void appendCounter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -1,10 +1,55 @@
 package wget.utils;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class NetworkUtils {
+    // Idle keep-alive connections the JDK keeps per host (http.maxConnections); its default of 5 is below
+    // our worker counts. This only sizes the idle cache: a request that finds no idle socket opens a new
+    // one. Open connections per host are bounded by the callers: one per --jobs worker in a mirror, one
+    // per segment, and the -i scheduler's per-host limits, which use this number in virtual-thread mode.
+    public static final int MAX_CONNECTIONS_PER_HOST = 32;
+
+    // Without timeouts a server that stops answering holds a worker forever and is never retried
+    private static final int CONNECT_TIMEOUT_MS = 30_000;
+    private static final int READ_TIMEOUT_MS = 120_000;
+
+    // Bodies larger than this are cheaper to drop than to drain for reuse
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+    private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-\\d+/(\\d+|\\*)",
+            Pattern.CASE_INSENSITIVE);
+
+    // Brotli has no decoder in the JDK, so only what we can decode is offered
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    // Set once from the command line (--no-compression, --keep-compressed)
+    private static volatile boolean compressionEnabled = true;
+    private static volatile boolean keepCompressed = false;
+
+    static {
+        if (System.getProperty("http.keepAlive") == null) {
+            System.setProperty("http.keepAlive", "true");
+        }
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(MAX_CONNECTIONS_PER_HOST));
+        }
+    }
+
     public static HttpURLConnection createConnection(String urlStr, String method) throws IOException {
         if (urlStr == null || urlStr.trim().isEmpty()) {
             throw new IllegalArgumentException("URL cannot be null or empty");
@@ -12,6 +57,127 @@ public class NetworkUtils {
         URL url = new URL(urlStr);
         HttpURLConnection conn = (HttpURLConnection) url.openConnection();
         conn.setRequestMethod(method);
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        conn.setReadTimeout(READ_TIMEOUT_MS);
         return conn;
     }
-}
\ No newline at end of file
+
+    // The response's Retry-After, in seconds or as an HTTP date; 0 when absent, past or unreadable
+    public static long retryAfterNanos(HttpURLConnection conn) {
+        String value = conn.getHeaderField("Retry-After");
+        if (value == null) {
+            return 0;
+        }
+        value = value.trim();
+        try {
+            if (!value.isEmpty() && Character.isDigit(value.charAt(0))) {
+                return Duration.ofSeconds(Long.parseLong(value)).toNanos();
+            }
+            Duration wait = Duration.between(ZonedDateTime.now(),
+                    ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME));
+            return wait.isNegative() ? 0 : wait.toNanos();
+        } catch (NumberFormatException | DateTimeParseException | ArithmeticException e) {
+            return 0;
+        }
+    }
+
+    // Where a 206 response's body starts in the resource, from its Content-Range; -1 when absent or unreadable
+    public static long contentRangeStart(HttpURLConnection conn) {
+        String value = conn.getHeaderField("Content-Range");
+        if (value == null) {
+            return -1;
+        }
+        Matcher range = CONTENT_RANGE.matcher(value.trim());
+        try {
+            return range.matches() ? Long.parseLong(range.group(1)) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static void configureCompression(boolean enabled, boolean keep) {
+        compressionEnabled = enabled;
+        keepCompressed = keep;
+    }
+
+    // Offers compressed transfer; not for Range requests, whose offsets refer to the identity body
+    public static void acceptCompressed(HttpURLConnection conn) {
+        if (compressionEnabled) {
+            conn.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+        }
+    }
+
+    // Whether the response body is compressed on the wire, so its Content-Length is not the saved size
+    public static boolean isEncoded(HttpURLConnection conn) {
+        return contentEncoding(conn) != null;
+    }
+
+    // Whether the body arrives encoded and is to be saved that way rather than decoded
+    public static boolean keepsEncoding(HttpURLConnection conn) {
+        return keepCompressed && isEncoded(conn);
+    }
+
+    // The response body as the server meant it, decoded while it is read whatever --keep-compressed
+    // says (callers check keepsEncoding first); wire is the raw stream
+    public static InputStream decodedBody(HttpURLConnection conn, InputStream wire) throws IOException {
+        String encoding = contentEncoding(conn);
+        if (encoding == null) {
+            return wire;
+        }
+        switch (encoding) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(wire, INFLATE_BUFFER_SIZE);
+            case "deflate":
+                return inflating(wire);
+            default:
+                throw new IOException("Unsupported Content-Encoding: " + encoding);
+        }
+    }
+
+    private static String contentEncoding(HttpURLConnection conn) {
+        String encoding = conn.getContentEncoding();
+        if (encoding == null) {
+            return null;
+        }
+        encoding = encoding.trim().toLowerCase();
+        return encoding.isEmpty() || encoding.equals("identity") ? null : encoding;
+    }
+
+    // "deflate" is meant to be zlib-wrapped, but some servers send a raw deflate stream
+    private static InputStream inflating(InputStream wire) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(wire, INFLATE_BUFFER_SIZE);
+        in.mark(2);
+        int cmf = in.read();
+        int flg = in.read();
+        in.reset();
+        boolean zlib = cmf >= 0 && flg >= 0 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+        return new InflaterInputStream(in, new Inflater(!zlib), INFLATE_BUFFER_SIZE);
+    }
+
+    // Drains and closes the response so the socket returns to the keep-alive pool instead of being torn down
+    public static void release(HttpURLConnection conn) {
+        try {
+            InputStream in = conn.getResponseCode() >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            if (in == null) {
+                return;
+            }
+            ByteBuffer pooled = BufferPool.acquire(BufferPool.MIN_SIZE);
+            try (in) {
+                byte[] buffer = pooled.array();
+                int drained = 0;
+                int bytesRead;
+                while (drained < MAX_DRAIN_BYTES && (bytesRead = in.read(buffer)) != -1) {
+                    drained += bytesRead;
+                }
+                if (drained >= MAX_DRAIN_BYTES) {
+                    conn.disconnect();
+                }
+            } finally {
+                BufferPool.release(pooled);
+            }
+        } catch (IOException e) {
+            conn.disconnect();
+        }
+    }
+}
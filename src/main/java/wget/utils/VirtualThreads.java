@@ -0,0 +1,43 @@
+package wget.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Virtual threads arrived in Java 21 while the build still targets 17, so the executor is looked up
+// reflectively and callers fall back to platform threads on older runtimes
+public class VirtualThreads {
+    private static final Method NEW_PER_TASK_EXECUTOR = lookup();
+
+    public static boolean isSupported() {
+        return NEW_PER_TASK_EXECUTOR != null;
+    }
+
+    // One new virtual thread per submitted task; null when the runtime has no virtual threads
+    public static ExecutorService newPerTaskExecutor() {
+        if (NEW_PER_TASK_EXECUTOR == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) NEW_PER_TASK_EXECUTOR.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    public static String unsupportedReason() {
+        return "virtual threads need Java 21 or newer, running on " + Runtime.version().feature();
+    }
+
+    private static Method lookup() {
+        if (Runtime.version().feature() < 21) {
+            return null;
+        }
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package wget.download;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+public class DiskWriterTest extends TestCase {
+    // More than the writer's queue holds, as a large -i list or mirror has in flight
+    private static final int TRANSFERS = 48;
+    private static final int BODY_SIZE = 600 * 1024;
+
+    private Path directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("wget-test");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    // Every transfer must be able to fill a buffer while all the others hold theirs; none may be
+    // kept from reading its socket because others are mid-transfer
+    public void testMoreTransfersThanQueuedBuffersAllProgress() throws Exception {
+        DiskWriter writer = new DiskWriter();
+        CyclicBarrier allFilling = new CyclicBarrier(TRANSFERS);
+        ExecutorService executor = Executors.newFixedThreadPool(TRANSFERS);
+        try {
+            List<Future<?>> transfers = new ArrayList<>();
+            for (int t = 0; t < TRANSFERS; t++) {
+                int transfer = t;
+                transfers.add(executor.submit(() -> {
+                    byte[] body = body(transfer);
+                    try (FileChannel channel = FileChannel.open(file(transfer), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE); DiskWriter.Sink sink = writer.sink(channel, 0)) {
+                        int offset = 0;
+                        ByteBuffer buffer = sink.buffer();
+                        int first = buffer.remaining() / 2;
+                        buffer.put(body, 0, first);
+                        offset += first;
+                        allFilling.await(10, TimeUnit.SECONDS);
+
+                        while (offset < body.length) {
+                            if (!buffer.hasRemaining()) {
+                                sink.submit();
+                                buffer = sink.buffer();
+                            }
+                            int count = Math.min(buffer.remaining(), Math.min(8192, body.length - offset));
+                            buffer.put(body, offset, count);
+                            offset += count;
+                        }
+                        sink.finish();
+                        assertEquals(body.length, sink.written());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> transfer : transfers) {
+                transfer.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int t = 0; t < TRANSFERS; t++) {
+            assertTrue("transfer " + t, Arrays.equals(body(t), Files.readAllBytes(file(t))));
+        }
+    }
+
+    public void testStreamWritesAtAnOffset() throws IOException {
+        DiskWriter writer = new DiskWriter();
+        byte[] head = "already here|".getBytes();
+        byte[] body = body(7);
+        Files.write(file(0), head);
+        try (FileChannel channel = FileChannel.open(file(0), StandardOpenOption.WRITE);
+                DiskWriter.Sink sink = writer.sink(channel, head.length)) {
+            sink.stream().write(body);
+            sink.finish();
+            assertEquals(head.length + body.length, sink.written());
+        }
+        byte[] saved = Files.readAllBytes(file(0));
+        assertTrue(Arrays.equals(head, Arrays.copyOf(saved, head.length)));
+        assertTrue(Arrays.equals(body, Arrays.copyOfRange(saved, head.length, saved.length)));
+    }
+
+    private Path file(int transfer) {
+        return directory.resolve("transfer" + transfer + ".bin");
+    }
+
+    private static byte[] body(int transfer) {
+        byte[] body = new byte[BODY_SIZE];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i * 31 + transfer);
+        }
+        return body;
+    }
+}
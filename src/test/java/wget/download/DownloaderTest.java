@@ -0,0 +1,66 @@
+package wget.download;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import wget.cli.ArgumentParser;
+import wget.cli.OutputFormatter;
+import wget.testing.StubServer;
+
+public class DownloaderTest extends TestCase {
+    private static final int SIZE = 100_000;
+    private static final int PARTIAL = 40_000;
+
+    private StubServer stub;
+    private Path directory;
+    private byte[] body;
+
+    @Override
+    protected void setUp() throws IOException {
+        stub = new StubServer();
+        directory = Files.createTempDirectory("wget-test");
+        body = new byte[SIZE];
+        new Random(42).nextBytes(body);
+        stub.serve("/file.bin", body);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        stub.close();
+        Files.deleteIfExists(directory.resolve("file.bin.wget-journal"));
+        Files.deleteIfExists(directory.resolve("file.bin"));
+        Files.delete(directory);
+    }
+
+    public void testContinueAppendsTheRequestedRange() throws Exception {
+        Files.write(directory.resolve("file.bin"), Arrays.copyOf(body, PARTIAL));
+
+        downloader("-c").download();
+
+        assertTrue(Arrays.equals(body, Files.readAllBytes(directory.resolve("file.bin"))));
+        assertEquals(1, stub.requests("/file.bin"));
+    }
+
+    public void testContinueRestartsWhenTheServerSendsAnotherRange() throws Exception {
+        Files.write(directory.resolve("file.bin"), Arrays.copyOf(body, PARTIAL));
+        // 206, but from the start of the file rather than from the partial file's end
+        stub.answerRangesFrom("/file.bin", 0);
+
+        downloader("-c").download();
+
+        assertTrue(Arrays.equals(body, Files.readAllBytes(directory.resolve("file.bin"))));
+        assertEquals(2, stub.requests("/file.bin"));
+    }
+
+    private Downloader downloader(String... options) throws Exception {
+        String url = stub.url("/file.bin");
+        String[] args = Arrays.copyOf(options, options.length + 1);
+        args[options.length] = url;
+        OutputFormatter formatter = new OutputFormatter(new ArgumentParser(args));
+        return new Downloader(url, "file.bin", directory + "/", "GET", formatter, null);
+    }
+}
@@ -0,0 +1,144 @@
+package wget.download;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class HostCircuitBreakersTest extends TestCase {
+    private static final String URL = "http://failing.example/file";
+    private static final long OPEN_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long MAX_OPEN_NANOS = TimeUnit.MILLISECONDS.toNanos(400);
+
+    public void testFailuresBelowThresholdKeepTheHostAdmitted() {
+        HostCircuitBreakers breakers = breakers(3);
+        for (int i = 1; i < HostCircuitBreakers.FAILURE_THRESHOLD; i++) {
+            assertEquals(0, breakers.failed(URL));
+            assertEquals(0, breakers.admit(URL));
+        }
+        assertEquals(OPEN_NANOS, breakers.failed(URL));
+        assertTrue(breakers.admit(URL) > 0);
+        assertEquals(0, breakers.admit("http://healthy.example/"));
+    }
+
+    public void testProbeThatSucceedsClosesTheBreaker() throws InterruptedException {
+        HostCircuitBreakers breakers = breakers(3);
+        open(breakers);
+
+        awaitPause(OPEN_NANOS);
+        assertEquals(0, breakers.admit(URL));
+        // Only one probe at a time
+        assertTrue(breakers.admit(URL) > 0);
+
+        breakers.succeeded(URL);
+        assertEquals(0, breakers.admit(URL));
+        assertEquals(0, breakers.hostCount());
+    }
+
+    public void testProbeThatFailsReopensForTwiceAsLong() throws InterruptedException {
+        HostCircuitBreakers breakers = breakers(5);
+        open(breakers);
+
+        long pause = OPEN_NANOS;
+        for (int opening = 2; opening <= 5; opening++) {
+            awaitPause(pause);
+            assertEquals(0, breakers.admit(URL));
+            long next = breakers.failed(URL);
+            assertEquals(Math.min(MAX_OPEN_NANOS, pause * 2), next);
+            pause = next;
+        }
+    }
+
+    public void testHostIsGivenUpAfterMaxOpenings() throws InterruptedException {
+        HostCircuitBreakers breakers = breakers(2);
+        open(breakers);
+        awaitPause(OPEN_NANOS);
+        assertEquals(0, breakers.admit(URL));
+        assertTrue(breakers.failed(URL) > 0);
+        awaitPause(OPEN_NANOS * 2);
+        assertEquals(0, breakers.admit(URL));
+
+        assertEquals(0, breakers.failed(URL));
+        assertEquals(-1, breakers.admit(URL));
+        // A late success does not bring it back
+        breakers.succeeded(URL);
+        assertEquals(-1, breakers.admit(URL));
+    }
+
+    public void testFailuresStartedBeforeTheBreakerOpenedAreNotCounted() throws InterruptedException {
+        HostCircuitBreakers breakers = breakers(3);
+        open(breakers);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, breakers.failed(URL));
+        }
+        awaitPause(OPEN_NANOS);
+        assertEquals(0, breakers.admit(URL));
+    }
+
+    public void testOneProbeWhenManyWorkersFindTheBreakerHalfOpen() throws Exception {
+        HostCircuitBreakers breakers = breakers(3);
+        open(breakers);
+        awaitPause(OPEN_NANOS);
+
+        int workers = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Long>> admitted = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                admitted.add(executor.submit(() -> {
+                    start.await();
+                    return breakers.admit(URL);
+                }));
+            }
+            start.countDown();
+            int probes = 0;
+            for (Future<Long> result : admitted) {
+                if (result.get() == 0) {
+                    probes++;
+                }
+            }
+            assertEquals(1, probes);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testSuccessDropsTheHostsEntry() {
+        HostCircuitBreakers breakers = breakers(3);
+        for (int i = 0; i < 100; i++) {
+            String url = "http://host" + i + ".example/";
+            breakers.failed(url);
+            breakers.succeeded(url);
+        }
+        assertEquals(0, breakers.hostCount());
+
+        // Counting starts over after a success
+        for (int i = 1; i < HostCircuitBreakers.FAILURE_THRESHOLD; i++) {
+            assertEquals(0, breakers.failed(URL));
+        }
+        breakers.succeeded(URL);
+        assertEquals(0, breakers.failed(URL));
+        assertEquals(1, breakers.hostCount());
+    }
+
+    private static HostCircuitBreakers breakers(int maxOpenings) {
+        return new HostCircuitBreakers(maxOpenings, OPEN_NANOS, MAX_OPEN_NANOS);
+    }
+
+    private static void open(HostCircuitBreakers breakers) {
+        for (int i = 0; i < HostCircuitBreakers.FAILURE_THRESHOLD; i++) {
+            breakers.failed(URL);
+        }
+        assertTrue(breakers.admit(URL) > 0);
+    }
+
+    private static void awaitPause(long nanos) throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(nanos + TimeUnit.MILLISECONDS.toNanos(10));
+    }
+}
@@ -0,0 +1,41 @@
+package wget.download;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class HostRateLimitsTest extends TestCase {
+    public void testOneBucketPerHostWhileHeld() {
+        HostRateLimits limits = new HostRateLimits("1m", "100k");
+        RateLimiter first = limits.forUrl("http://a.example/x");
+
+        assertSame(first, limits.forUrl("http://A.example/y"));
+        assertNotSame(first, limits.forUrl("http://b.example/x"));
+        assertEquals(2, limits.hostCount());
+    }
+
+    public void testWithoutHostLimitEveryUrlGetsTheGlobalBucket() {
+        HostRateLimits limits = new HostRateLimits("1m", null);
+        assertSame(limits.getGlobal(), limits.forUrl("http://a.example/"));
+        assertEquals(0, limits.hostCount());
+    }
+
+    public void testBucketsNoDownloadHoldsAreDropped() throws InterruptedException {
+        HostRateLimits limits = new HostRateLimits(null, "100k");
+        List<RateLimiter> held = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            RateLimiter limiter = limits.forUrl("http://host" + i + ".example/");
+            if (i < 10) {
+                held.add(limiter);
+            }
+        }
+
+        for (int i = 0; i < 50 && limits.hostCount() > held.size(); i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(held.size(), limits.hostCount());
+        assertSame(held.get(0), limits.forUrl("http://host0.example/"));
+    }
+}
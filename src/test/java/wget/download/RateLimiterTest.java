@@ -0,0 +1,100 @@
+package wget.download;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class RateLimiterTest extends TestCase {
+    private static final int THREADS = 4;
+    private static final int CHUNK = 8 * 1024;
+    private static final long RATE = 1024 * 1024;
+    private static final long BURST = 64 * 1024;
+
+    public void testThreadsShareOneBucket() throws Exception {
+        RateLimiter limiter = new RateLimiter(RATE, BURST, null);
+        long bytes = 128 * 1024;
+
+        double seconds = throttleConcurrently(limiter, bytes);
+
+        // The burst is free, the rest is paid at the rate whichever thread reads it
+        double expected = (THREADS * bytes - BURST) / (double) RATE;
+        assertTrue("took " + seconds + "s, expected " + expected + "s", seconds >= expected * 0.9);
+        assertTrue("took " + seconds + "s, expected " + expected + "s", seconds < expected * 2 + 0.5);
+    }
+
+    public void testParentLimitsChildrenTogether() throws Exception {
+        RateLimiter parent = new RateLimiter(RATE, BURST, null);
+        // Each host alone would allow 4x the global rate
+        RateLimiter first = new RateLimiter(RATE * 4, BURST, parent);
+        RateLimiter second = new RateLimiter(RATE * 4, BURST, parent);
+        long bytes = 256 * 1024;
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> a = executor.submit(() -> throttle(first, bytes));
+            Future<?> b = executor.submit(() -> throttle(second, bytes));
+            a.get();
+            b.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        double expected = (2 * bytes - BURST) / (double) RATE;
+        assertTrue("took " + seconds + "s, expected " + expected + "s", seconds >= expected * 0.9);
+    }
+
+    public void testZeroRateNeverWaits() throws Exception {
+        RateLimiter limiter = new RateLimiter(0, null);
+        assertTrue(throttleConcurrently(limiter, 64 * 1024 * 1024) < 1);
+    }
+
+    public void testParseRateLimit() {
+        assertEquals(200 * 1024, RateLimiter.parseRateLimit("200k"));
+        assertEquals(2 * 1024 * 1024, RateLimiter.parseRateLimit("2M"));
+        assertEquals(500, RateLimiter.parseRateLimit("500"));
+        try {
+            RateLimiter.parseRateLimit("fast");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static double throttleConcurrently(RateLimiter limiter, long bytesPerThread) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    throttle(limiter, bytesPerThread);
+                    return null;
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            return (System.nanoTime() - begin) / 1e9;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Void throttle(RateLimiter limiter, long bytes) throws InterruptedException {
+        for (long sent = 0; sent < bytes; sent += CHUNK) {
+            limiter.throttle(CHUNK);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,52 @@
+package wget.download;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import wget.utils.HttpStatusException;
+
+public class RetryPolicyTest extends TestCase {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    public void testBackoffDoublesWithJitterUpToTheCap() {
+        RetryPolicy policy = new RetryPolicy(10, 8);
+        IOException e = new SocketTimeoutException("read timed out");
+        long[] caps = { 1, 2, 4, 8, 8, 8 };
+        for (int attempt = 1; attempt <= caps.length; attempt++) {
+            long cap = caps[attempt - 1] * SECOND;
+            for (int i = 0; i < 200; i++) {
+                long delay = policy.delayNanos(e, attempt);
+                assertTrue("attempt " + attempt + ": " + delay, delay >= cap / 2 && delay <= cap);
+            }
+        }
+    }
+
+    public void testLongerRetryAfterWins() {
+        RetryPolicy policy = new RetryPolicy(3, 1);
+        HttpStatusException e = new HttpStatusException("busy", 503, 30 * SECOND);
+        assertEquals(30 * SECOND, policy.delayNanos(e, 1));
+    }
+
+    public void testTriesCountTheFirstAttempt() {
+        RetryPolicy policy = new RetryPolicy(3, 0);
+        IOException e = new HttpStatusException("unavailable", 503);
+        assertTrue(policy.shouldRetry(e, 1));
+        assertTrue(policy.shouldRetry(e, 2));
+        assertFalse(policy.shouldRetry(e, 3));
+        assertFalse(new RetryPolicy(1, 0).shouldRetry(e, 1));
+    }
+
+    public void testOnlyTransientFailuresAreRetried() {
+        RetryPolicy policy = new RetryPolicy(3, 0);
+        assertTrue(policy.shouldRetry(new HttpStatusException("throttled", 429), 1));
+        assertTrue(policy.shouldRetry(new IOException("connection reset"), 1));
+        assertFalse(policy.shouldRetry(new HttpStatusException("not found", 404), 1));
+        assertFalse(policy.shouldRetry(new UnknownHostException("nowhere.example"), 1));
+        assertFalse(policy.shouldRetry(new IOException("lookup", new UnknownHostException("nowhere.example")), 1));
+        // A server asking us to stay away for an hour is down for this run
+        assertFalse(policy.shouldRetry(new HttpStatusException("busy", 503, TimeUnit.HOURS.toNanos(1)), 1));
+    }
+}
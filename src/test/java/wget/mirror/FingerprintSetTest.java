@@ -0,0 +1,73 @@
+package wget.mirror;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+public class FingerprintSetTest extends TestCase {
+    private static final int THREADS = 8;
+    // Enough to grow every stripe several times while the threads race
+    private static final int URLS = 200_000;
+
+    public void testConcurrentAddsAcceptEachUrlOnce() throws Exception {
+        FingerprintSet set = new FingerprintSet();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int offset = t * URLS / THREADS;
+                results.add(executor.submit((Callable<Integer>) () -> {
+                    start.await();
+                    int accepted = 0;
+                    // Every thread adds every URL, each from a different starting point
+                    for (int i = 0; i < URLS; i++) {
+                        String url = url((offset + i) % URLS);
+                        if (set.add(url)) {
+                            accepted++;
+                        }
+                        if (!set.contains(url)) {
+                            throw new AssertionError("Lost " + url);
+                        }
+                    }
+                    return accepted;
+                }));
+            }
+            start.countDown();
+
+            int accepted = 0;
+            for (Future<Integer> result : results) {
+                accepted += result.get();
+            }
+            assertEquals(URLS, accepted);
+            assertEquals(URLS, set.size());
+            for (int i = 0; i < URLS; i++) {
+                assertTrue(set.contains(url(i)));
+            }
+            assertFalse(set.contains(url(URLS)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testClear() {
+        FingerprintSet set = new FingerprintSet();
+        for (int i = 0; i < 1000; i++) {
+            set.add(url(i));
+        }
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(url(0)));
+        assertTrue(set.add(url(0)));
+    }
+
+    private static String url(int i) {
+        return "http://example.com/section-" + (i % 97) + "/page-" + i + ".html";
+    }
+}
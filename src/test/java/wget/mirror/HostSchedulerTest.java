@@ -0,0 +1,214 @@
+package wget.mirror;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import wget.testing.StubServer;
+
+public class HostSchedulerTest extends TestCase {
+    private static final int PRODUCERS = 4;
+    private static final int CONSUMERS = 8;
+    private static final int HOSTS = 10;
+    private static final int URLS_PER_PRODUCER = 5000;
+
+    public void testConcurrentWorkersTakeEveryUrlOnce() throws Exception {
+        HostScheduler scheduler = new HostScheduler(false);
+        int total = PRODUCERS * URLS_PER_PRODUCER;
+        Set<String> taken = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(total);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS + CONSUMERS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < PRODUCERS; p++) {
+                int producer = p;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < URLS_PER_PRODUCER; i++) {
+                        if (i % 3 == 0) {
+                            scheduler.addLater(url(producer, i), TimeUnit.MILLISECONDS.toNanos(i % 7));
+                        } else {
+                            scheduler.add(url(producer, i));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int c = 0; c < CONSUMERS; c++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    while (remaining.get() > 0) {
+                        String url = scheduler.poll(50, TimeUnit.MILLISECONDS);
+                        if (url != null) {
+                            if (!taken.add(url)) {
+                                duplicates.incrementAndGet();
+                            }
+                            remaining.decrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+
+            assertEquals(0, duplicates.get());
+            assertEquals(total, taken.size());
+            assertEquals(0, scheduler.size());
+            assertNull(scheduler.poll(0, TimeUnit.MILLISECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testPausedHostDoesNotHoldUpOthers() throws Exception {
+        HostScheduler scheduler = new HostScheduler(false);
+        scheduler.add("http://slow.example/a");
+        scheduler.add("http://fast.example/a");
+        scheduler.pause("http://slow.example/a", TimeUnit.MILLISECONDS.toNanos(300));
+
+        long start = System.nanoTime();
+        assertEquals("http://fast.example/a", scheduler.poll(1, TimeUnit.SECONDS));
+        assertNull(scheduler.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals("http://slow.example/a", scheduler.poll(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+    }
+
+    public void testPollWakesForUrlAddedByAnotherThread() throws Exception {
+        HostScheduler scheduler = new HostScheduler(false);
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                return;
+            }
+            scheduler.add("http://example.com/late");
+        });
+        producer.start();
+        assertEquals("http://example.com/late", scheduler.poll(5, TimeUnit.SECONDS));
+        producer.join();
+    }
+
+    public void testRobotsFetchedOnceWhileWorkersWaitForIt() throws Exception {
+        try (StubServer stub = new StubServer()) {
+            stub.serve("/robots.txt", "User-agent: *\nDisallow: /private/\n");
+            stub.delay("/robots.txt", 200);
+            HostScheduler scheduler = new HostScheduler(true);
+
+            ExecutorService executor = Executors.newFixedThreadPool(CONSUMERS);
+            CountDownLatch start = new CountDownLatch(1);
+            try {
+                List<Future<Boolean>> allowed = new ArrayList<>();
+                for (int i = 0; i < CONSUMERS; i++) {
+                    String path = i % 2 == 0 ? "/public/" + i : "/private/" + i;
+                    allowed.add(executor.submit(() -> {
+                        start.await();
+                        return scheduler.allows(stub.url(path));
+                    }));
+                }
+                start.countDown();
+                for (int i = 0; i < CONSUMERS; i++) {
+                    assertEquals(i % 2 == 0, allowed.get(i).get(10, TimeUnit.SECONDS).booleanValue());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            assertEquals(1, stub.requests("/robots.txt"));
+        }
+    }
+
+    public void testSlowRobotsOnlyHoldsUpItsOwnHost() throws Exception {
+        try (StubServer slow = new StubServer(); StubServer fast = new StubServer()) {
+            slow.serve("/robots.txt", "User-agent: *\nDisallow:\n");
+            slow.delay("/robots.txt", 1000);
+            fast.serve("/robots.txt", "User-agent: *\nDisallow:\n");
+            HostScheduler scheduler = new HostScheduler(true);
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<Boolean> waiting = executor.submit(() -> scheduler.allows(slow.url("/a")));
+                Thread.sleep(100);
+                long start = System.nanoTime();
+                assertTrue(scheduler.allows(fast.url("/a")));
+                assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+                assertTrue(waiting.get(10, TimeUnit.SECONDS));
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    // Workers polling a host nobody has fetched from yet must not all get a URL before its
+    // Crawl-delay is known, nor wait for its robots.txt while another host has URLs ready
+    public void testCrawlDelayHoldsFromTheFirstUrl() throws Exception {
+        try (StubServer polite = new StubServer(); StubServer other = new StubServer()) {
+            polite.serve("/robots.txt", "User-agent: *\nCrawl-delay: 0.5\n");
+            polite.delay("/robots.txt", 300);
+            other.serve("/robots.txt", "User-agent: *\nDisallow:\n");
+            HostScheduler scheduler = new HostScheduler(true);
+            int urls = 3;
+            for (int i = 0; i < urls; i++) {
+                scheduler.add(polite.url("/" + i));
+            }
+            scheduler.add(other.url("/a"));
+
+            ExecutorService executor = Executors.newFixedThreadPool(CONSUMERS);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Long> politeTimes = new ArrayList<>();
+            long[] otherTime = new long[1];
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int c = 0; c < CONSUMERS; c++) {
+                    futures.add(executor.submit(() -> {
+                        start.await();
+                        String url = scheduler.poll(3, TimeUnit.SECONDS);
+                        long at = System.nanoTime();
+                        synchronized (politeTimes) {
+                            if (url == null) {
+                                return null;
+                            } else if (url.startsWith(other.url("/"))) {
+                                otherTime[0] = at;
+                            } else {
+                                politeTimes.add(at);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                long started = System.nanoTime();
+                start.countDown();
+                for (Future<?> future : futures) {
+                    future.get(10, TimeUnit.SECONDS);
+                }
+
+                assertEquals(urls, politeTimes.size());
+                politeTimes.sort(null);
+                for (int i = 1; i < urls; i++) {
+                    long gap = politeTimes.get(i) - politeTimes.get(i - 1);
+                    assertTrue("gap " + gap, gap >= TimeUnit.MILLISECONDS.toNanos(450));
+                }
+                // The other host's URL went out while the polite host's robots.txt was still on its way
+                assertTrue(otherTime[0] != 0 && otherTime[0] - started < TimeUnit.MILLISECONDS.toNanos(250));
+            } finally {
+                executor.shutdownNow();
+            }
+            assertEquals(1, polite.requests("/robots.txt"));
+        }
+    }
+
+    private static String url(int producer, int i) {
+        return "http://host" + (i % HOSTS) + ".example/p" + producer + "/" + i;
+    }
+}
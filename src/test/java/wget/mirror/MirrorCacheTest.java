@@ -0,0 +1,139 @@
+package wget.mirror;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+public class MirrorCacheTest extends TestCase {
+    private static final int THREADS = 8;
+    private static final int URLS = 20_000;
+
+    private Path directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("mirror-cache");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    public void testEntriesSurviveSaveAndLoad() throws IOException {
+        MirrorCache cache = new MirrorCache(directory);
+        cache.load();
+        cache.put("http://a/", "\"v1\"", null, 10, "abc", List.of("http://a/x", "http://a/y"));
+        cache.put("http://a/x", null, "Mon, 01 Jan 2024 00:00:00 GMT", 20, null, List.of());
+        cache.save();
+
+        MirrorCache reloaded = new MirrorCache(directory);
+        reloaded.load();
+        assertEquals(2, reloaded.size());
+        MirrorCache.Entry page = reloaded.get("http://a/");
+        assertEquals("\"v1\"", page.etag);
+        assertNull(page.lastModified);
+        assertEquals(10, page.size);
+        assertEquals("abc", page.hash);
+        assertEquals(List.of("http://a/x", "http://a/y"), page.links);
+        MirrorCache.Entry file = reloaded.get("http://a/x");
+        assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", file.lastModified);
+        assertTrue(file.links.isEmpty());
+        assertNull(reloaded.get("http://a/y"));
+    }
+
+    public void testSaveKeepsOldEntriesAndReplacesNewOnes() throws IOException {
+        MirrorCache cache = new MirrorCache(directory);
+        cache.load();
+        cache.put("http://a/kept", "k", null, 1, "h1", List.of());
+        cache.put("http://a/changed", "old", null, 2, "h2", List.of("http://a/gone"));
+        cache.put("http://a/removed", "r", null, 3, "h3", List.of());
+        cache.save();
+
+        MirrorCache second = new MirrorCache(directory);
+        second.load();
+        second.put("http://a/changed", "new", null, 4, "h4", List.of("http://a/kept"));
+        // Until saved, the old file still answers for what this run has not replaced
+        assertEquals("k", second.get("http://a/kept").etag);
+        assertEquals("new", second.get("http://a/changed").etag);
+        second.remove("http://a/removed");
+        assertNull(second.get("http://a/removed"));
+        second.save();
+
+        MirrorCache third = new MirrorCache(directory);
+        third.load();
+        assertEquals(2, third.size());
+        assertEquals("k", third.get("http://a/kept").etag);
+        MirrorCache.Entry changed = third.get("http://a/changed");
+        assertEquals("new", changed.etag);
+        assertEquals(4, changed.size);
+        assertEquals(List.of("http://a/kept"), changed.links);
+        assertNull(third.get("http://a/removed"));
+    }
+
+    public void testDamagedLinesAreSkipped() throws IOException {
+        Files.writeString(directory.resolve(MirrorCache.FILE_NAME),
+                "http://a/short\t-\t-\n"
+                        + "http://a/bad\t-\t-\tnot-a-number\t-\n"
+                        + "http://a/good\te\t-\t5\th\thttp://a/\n");
+        MirrorCache cache = new MirrorCache(directory);
+        cache.load();
+        assertNull(cache.get("http://a/short"));
+        assertNull(cache.get("http://a/bad"));
+        assertEquals(5, cache.get("http://a/good").size);
+    }
+
+    public void testConcurrentPutsAndGets() throws Exception {
+        MirrorCache cache = new MirrorCache(directory);
+        cache.load();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                results.add(executor.submit((Callable<Void>) () -> {
+                    start.await();
+                    for (int i = thread; i < URLS; i += THREADS) {
+                        String url = "http://a/" + i;
+                        cache.put(url, "e" + i, null, i, null, List.of(url + "/next"));
+                        MirrorCache.Entry entry = cache.get(url);
+                        if (entry == null || entry.size != i || !entry.links.equals(List.of(url + "/next"))) {
+                            throw new AssertionError("Lost " + url);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        cache.save();
+
+        MirrorCache reloaded = new MirrorCache(directory);
+        reloaded.load();
+        assertEquals(URLS, reloaded.size());
+        for (int i = 0; i < URLS; i++) {
+            assertEquals("e" + i, reloaded.get("http://a/" + i).etag);
+        }
+    }
+}
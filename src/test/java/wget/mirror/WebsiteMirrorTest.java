@@ -0,0 +1,207 @@
+package wget.mirror;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+import wget.download.HostCircuitBreakers;
+import wget.download.RetryPolicy;
+import wget.testing.StubServer;
+import wget.utils.NetworkUtils;
+
+// Mirrors a site served by the stub into ./downloads/127.0.0.1, which is removed afterwards
+public class WebsiteMirrorTest extends TestCase {
+    private static final Path MIRROR = Paths.get("./downloads", "127.0.0.1");
+
+    private StubServer stub;
+
+    @Override
+    protected void setUp() throws IOException {
+        stub = new StubServer();
+        deleteMirror();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        stub.close();
+        deleteMirror();
+    }
+
+    public void testParallelCrawlReusesOneConnectionPerWorker() throws IOException {
+        int pages = 100;
+        int jobs = 4;
+        StringBuilder index = new StringBuilder("<html><body>");
+        for (int i = 0; i < pages; i++) {
+            index.append("<a href=\"/p").append(i).append(".html\">p").append(i).append("</a>");
+            stub.serve("/p" + i + ".html", "<html><body>page " + i + "</body></html>");
+        }
+        stub.serve("/", index.append("</body></html>").toString());
+
+        mirror(jobs, new RetryPolicy());
+
+        for (int i = 0; i < pages; i++) {
+            assertTrue(Files.exists(MIRROR.resolve("p" + i + ".html")));
+        }
+        // One keep-alive socket per worker, plus at most one for robots.txt before the workers start
+        assertTrue("connections: " + stub.connections(), stub.connections() <= jobs + 1);
+    }
+
+    public void testEncodedSlashesStayInsideTheMirror() throws IOException {
+        String escaping = "/a%2F..%2F..%2F..%2Fescaped.html";
+        stub.serve("/", "<html><body><a href=\"" + escaping + "\">up</a></body></html>");
+        stub.serve(escaping, "<html><body>escaped</body></html>");
+
+        mirror(1, new RetryPolicy());
+
+        assertEquals(1, stub.requests(escaping));
+        assertTrue(Files.exists(MIRROR.resolve("a%2F..%2F..%2F..%2Fescaped.html")));
+        assertFalse(Files.exists(MIRROR.resolveSibling("escaped.html")));
+        assertFalse(Files.exists(Paths.get("escaped.html")));
+    }
+
+    public void testTransientStatusesAreRetried() throws IOException {
+        stub.serve("/", "<html><body><a href=\"/flaky.html\">flaky</a></body></html>");
+        stub.serve("/flaky.html", "<html><body>flaky</body></html>");
+        stub.failFirst("/flaky.html", 2, 503, -1);
+
+        mirror(1, new RetryPolicy(3, 0));
+
+        assertEquals(3, stub.requests("/flaky.html"));
+        assertEquals("<html><body>flaky</body></html>", Files.readString(MIRROR.resolve("flaky.html")));
+    }
+
+    public void testTruncatedBodyIsRetried() throws IOException {
+        byte[] body = new byte[64 * 1024];
+        Arrays.fill(body, (byte) 'x');
+        stub.serve("/", "<html><body><a href=\"/big.bin\">big</a></body></html>");
+        stub.serve("/big.bin", body);
+        stub.truncateFirst("/big.bin", 1, 1000);
+
+        mirror(1, new RetryPolicy(3, 0));
+
+        assertEquals(2, stub.requests("/big.bin"));
+        assertTrue(Arrays.equals(body, Files.readAllBytes(MIRROR.resolve("big.bin"))));
+    }
+
+    public void testRetryWaitsForRetryAfter() throws IOException {
+        stub.serve("/", "<html><body><a href=\"/busy.html\">busy</a></body></html>");
+        stub.serve("/busy.html", "<html><body>busy</body></html>");
+        stub.failFirst("/busy.html", 1, 503, 1);
+
+        long start = System.nanoTime();
+        mirror(1, new RetryPolicy(3, 0));
+
+        assertEquals(2, stub.requests("/busy.html"));
+        assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+        assertTrue(Files.exists(MIRROR.resolve("busy.html")));
+    }
+
+    public void testFailuresStopOnceRetriesRunOut() throws IOException {
+        stub.serve("/", "<html><body><a href=\"/down.html\">down</a></body></html>");
+        stub.serve("/down.html", "<html><body>down</body></html>");
+        stub.failFirst("/down.html", 100, 503, -1);
+
+        mirror(1, new RetryPolicy(2, 0));
+
+        assertEquals(2, stub.requests("/down.html"));
+        assertFalse(Files.exists(MIRROR.resolve("down.html")));
+    }
+
+    // A page the site no longer has is dropped from the cache rather than carried over forever
+    public void testRemirrorDropsCacheEntryOfMissingPage() throws IOException {
+        stub.serve("/", "<html><body><a href=\"/gone.html\">gone</a></body></html>");
+        stub.serve("/gone.html", "<html><body>gone</body></html>");
+        mirror(1, new RetryPolicy());
+        stub.unserve("/gone.html");
+
+        mirror(1, new RetryPolicy());
+
+        assertEquals(2, stub.requests("/gone.html"));
+        MirrorCache cache = new MirrorCache(MIRROR);
+        cache.load();
+        assertNotNull(cache.get(stub.url("/")));
+        assertNull(cache.get(stub.url("/gone.html")));
+    }
+
+    // Pages are parsed as they arrive, so --keep-compressed must not hand the scanner gzip bytes
+    public void testGzipPagesAreParsedAndSavedDecoded() throws IOException {
+        String index = "<html><body><a href=\"/next.html\">next</a></body></html>";
+        stub.serve("/", index);
+        stub.serve("/next.html", "<html><body>next</body></html>");
+        stub.gzip("/");
+        stub.gzip("/next.html");
+
+        NetworkUtils.configureCompression(true, true);
+        try {
+            mirror(1, new RetryPolicy());
+        } finally {
+            NetworkUtils.configureCompression(true, false);
+        }
+
+        assertEquals(1, stub.requests("/next.html"));
+        assertEquals(index, Files.readString(MIRROR.resolve("index.html")));
+        assertEquals("<html><body>next</body></html>", Files.readString(MIRROR.resolve("next.html")));
+    }
+
+    // Five failures in a row open the host's breaker. The probe after the pause is a URL robots.txt
+    // forbids; unless that skip closes the breaker, every other URL waits for the probe forever.
+    public void testProbeSkippedByRobotsClosesTheBreaker() throws Exception {
+        StringBuilder index = new StringBuilder("<html><body>");
+        for (int i = 0; i < HostCircuitBreakers.FAILURE_THRESHOLD; i++) {
+            index.append("<a href=\"/a").append(i).append(".html\">a</a>");
+            stub.serve("/a" + i + ".html", "<html><body>a" + i + "</body></html>");
+            stub.failFirst("/a" + i + ".html", 1, 503, -1);
+        }
+        index.append("<a href=\"/private/x.html\">x</a></body></html>");
+        stub.serve("/", index.toString());
+        stub.serve("/private/x.html", "<html><body>x</body></html>");
+        stub.serve("/robots.txt", "User-agent: *\nDisallow: /private/\n");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> mirror = executor.submit(() -> {
+                mirror(1, new RetryPolicy(3, 0));
+                return null;
+            });
+            mirror.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int i = 0; i < HostCircuitBreakers.FAILURE_THRESHOLD; i++) {
+            assertTrue(Files.exists(MIRROR.resolve("a" + i + ".html")));
+        }
+        assertEquals(0, stub.requests("/private/x.html"));
+    }
+
+    private void mirror(int jobs, RetryPolicy retries) throws IOException {
+        new WebsiteMirror(stub.url("/"), List.of(), List.of(), false, jobs, null, false, false, false, true, retries)
+                .mirror();
+    }
+
+    private static void deleteMirror() throws IOException {
+        if (!Files.exists(MIRROR)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(MIRROR)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+        try (Stream<Path> rest = Files.list(MIRROR.getParent())) {
+            if (rest.findAny().isEmpty()) {
+                Files.delete(MIRROR.getParent());
+            }
+        }
+    }
+}
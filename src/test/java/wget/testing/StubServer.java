@@ -0,0 +1,355 @@
+package wget.testing;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+// A small HTTP/1.1 server on a raw socket, so tests can count the TCP connections a client opens
+// and inject the faults the retry paths handle: error statuses with Retry-After, bodies cut short,
+// a whole host going down, slow responses and range requests answered wrongly. Keep-alive unless
+// the client asks for Connection: close; byte ranges of the form N- and N-M; gzip on request.
+public class StubServer implements AutoCloseable {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final ServerSocket server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "stub-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    // Non-zero: every request is answered with this status
+    private volatile int downStatus;
+
+    private static final class Route {
+        final byte[] body;
+        final String contentType;
+        // Faults for the first requests to the route
+        int failures;
+        int failStatus;
+        int retryAfterSeconds = -1;
+        int truncations;
+        int truncateAt;
+        // Set: a range request is answered from this offset, whatever was asked
+        long rangeStart = -1;
+        long delayMillis;
+        boolean gzip;
+
+        Route(byte[] body, String contentType) {
+            this.body = body;
+            this.contentType = contentType;
+        }
+    }
+
+    public StubServer() throws IOException {
+        this.server = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        executor.execute(this::acceptLoop);
+    }
+
+    public String serve(String path, byte[] body) {
+        String type = path.endsWith(".html") || path.endsWith("/") ? "text/html" : "application/octet-stream";
+        routes.put(path, new Route(body, type));
+        return url(path);
+    }
+
+    public String serve(String path, String body) {
+        return serve(path, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Requests to path get 404 from now on
+    public void unserve(String path) {
+        routes.remove(path);
+    }
+
+    // The first times requests to path get status; retryAfterSeconds < 0 sends no Retry-After
+    public void failFirst(String path, int times, int status, int retryAfterSeconds) {
+        Route route = route(path);
+        synchronized (route) {
+            route.failures = times;
+            route.failStatus = status;
+            route.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+
+    // The first times path is served, the connection closes after bytes of the body
+    public void truncateFirst(String path, int times, int bytes) {
+        Route route = route(path);
+        synchronized (route) {
+            route.truncations = times;
+            route.truncateAt = bytes;
+        }
+    }
+
+    // Range requests to path are answered with 206 from start on, whatever range was asked for
+    public void answerRangesFrom(String path, long start) {
+        Route route = route(path);
+        synchronized (route) {
+            route.rangeStart = start;
+        }
+    }
+
+    // Each response on path is held back this long before its headers go out
+    public void delay(String path, long millis) {
+        Route route = route(path);
+        synchronized (route) {
+            route.delayMillis = millis;
+        }
+    }
+
+    // Requests to path that accept gzip get the body gzip-encoded
+    public void gzip(String path) {
+        Route route = route(path);
+        synchronized (route) {
+            route.gzip = true;
+        }
+    }
+
+    // Every request gets status until setDown(0)
+    public void setDown(int status) {
+        this.downStatus = status;
+    }
+
+    public int connections() {
+        return connections.get();
+    }
+
+    public int requests(String path) {
+        AtomicInteger count = requests.get(path);
+        return count != null ? count.get() : 0;
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + server.getLocalPort() + path;
+    }
+
+    private Route route(String path) {
+        Route route = routes.get(path);
+        if (route == null) {
+            throw new IllegalArgumentException("Nothing served at " + path);
+        }
+        return route;
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                connections.incrementAndGet();
+                executor.execute(() -> handle(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                String head = readHead(in);
+                if (head == null) {
+                    return;
+                }
+                String[] lines = head.split("\r\n");
+                String[] requestLine = lines[0].split(" ");
+                Map<String, String> headers = new LinkedHashMap<>();
+                for (int i = 1; i < lines.length; i++) {
+                    int colon = lines[i].indexOf(':');
+                    if (colon > 0) {
+                        headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                                lines[i].substring(colon + 1).trim());
+                    }
+                }
+                String path = requestLine[1];
+                int query = path.indexOf('?');
+                if (query >= 0) {
+                    path = path.substring(0, query);
+                }
+                requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+
+                boolean keepAlive = !"close".equalsIgnoreCase(headers.get("connection"));
+                if (!respond(out, requestLine[0], path, headers, keepAlive) || !keepAlive) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+
+    // False when the connection must be closed
+    private boolean respond(OutputStream out, String method, String path, Map<String, String> headers,
+            boolean keepAlive) throws IOException {
+        int down = downStatus;
+        if (down != 0) {
+            writeHead(out, down, null, 0, keepAlive, "");
+            return true;
+        }
+        Route route = routes.get(path);
+        if (route == null) {
+            writeHead(out, 404, null, 0, keepAlive, "");
+            return true;
+        }
+
+        int failStatus = 0;
+        int retryAfter;
+        int truncateAt = -1;
+        long rangeStart;
+        long delay;
+        boolean gzip;
+        synchronized (route) {
+            if (route.failures > 0) {
+                route.failures--;
+                failStatus = route.failStatus;
+            } else if (route.truncations > 0) {
+                route.truncations--;
+                truncateAt = route.truncateAt;
+            }
+            retryAfter = route.retryAfterSeconds;
+            rangeStart = route.rangeStart;
+            delay = route.delayMillis;
+            gzip = route.gzip;
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (failStatus != 0) {
+            writeHead(out, failStatus, null, 0, keepAlive,
+                    retryAfter >= 0 ? "Retry-After: " + retryAfter + "\r\n" : "");
+            return true;
+        }
+
+        byte[] body = route.body;
+        int status = 200;
+        int from = 0;
+        int to = body.length;
+        String extra = "Accept-Ranges: bytes\r\n";
+        String accepted = headers.getOrDefault("accept-encoding", "");
+        if (gzip && accepted.contains("gzip") && !headers.containsKey("range")) {
+            body = gzipped(body);
+            to = body.length;
+            extra = "Content-Encoding: gzip\r\n";
+        }
+        Matcher range = headers.containsKey("range") ? RANGE.matcher(headers.get("range")) : null;
+        if (range != null && range.matches()) {
+            from = (int) (rangeStart >= 0 ? rangeStart : Long.parseLong(range.group(1)));
+            if (rangeStart < 0 && !range.group(2).isEmpty()) {
+                to = (int) Math.min(body.length, Long.parseLong(range.group(2)) + 1);
+            }
+            if (from >= body.length) {
+                writeHead(out, 416, null, 0, keepAlive, "Content-Range: bytes */" + body.length + "\r\n");
+                return true;
+            }
+            status = 206;
+            extra += "Content-Range: bytes " + from + "-" + (to - 1) + "/" + body.length + "\r\n";
+        }
+
+        writeHead(out, status, route.contentType, to - from, keepAlive, extra);
+        if ("HEAD".equals(method)) {
+            return true;
+        }
+        if (truncateAt >= 0 && truncateAt < to - from) {
+            out.write(body, from, truncateAt);
+            out.flush();
+            return false;
+        }
+        out.write(body, from, to - from);
+        out.flush();
+        return true;
+    }
+
+    private static byte[] gzipped(byte[] body) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(encoded)) {
+            out.write(body);
+        }
+        return encoded.toByteArray();
+    }
+
+    private static void writeHead(OutputStream out, int status, String contentType, long length, boolean keepAlive,
+            String extra) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        if (contentType != null) {
+            head.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        head.append("Content-Length: ").append(length).append("\r\n");
+        head.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
+        head.append(extra).append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 206:
+                return "Partial Content";
+            case 404:
+                return "Not Found";
+            case 416:
+                return "Range Not Satisfiable";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Status";
+        }
+    }
+
+    // The request line and headers, or null once the client has closed the connection
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b;
+            try {
+                b = in.read();
+            } catch (SocketException e) {
+                return null;
+            }
+            if (b == -1) {
+                return null;
+            }
+            head.write(b);
+            if (b == (matched % 2 == 0 ? '\r' : '\n')) {
+                matched++;
+            } else {
+                matched = b == '\r' ? 1 : 0;
+            }
+        }
+        String text = head.toString(StandardCharsets.ISO_8859_1);
+        return text.substring(0, text.length() - 4);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        executor.shutdownNow();
+    }
+}
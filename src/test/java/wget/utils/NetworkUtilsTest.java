@@ -0,0 +1,85 @@
+package wget.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import wget.testing.StubServer;
+
+// Counts the TCP connections the stub accepts to check that requests share keep-alive sockets
+public class NetworkUtilsTest extends TestCase {
+    private StubServer stub;
+
+    @Override
+    protected void setUp() throws IOException {
+        stub = new StubServer();
+        stub.serve("/file.bin", new byte[20_000]);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        stub.close();
+    }
+
+    public void testSequentialRequestsShareOneConnection() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            assertEquals(20_000, fetch(stub.url("/file.bin")));
+        }
+        assertEquals(20, stub.requests("/file.bin"));
+        assertEquals(1, stub.connections());
+    }
+
+    public void testReleasedErrorResponseKeepsItsConnection() throws IOException {
+        HttpURLConnection conn = NetworkUtils.createConnection(stub.url("/missing"), "GET");
+        assertEquals(404, conn.getResponseCode());
+        NetworkUtils.release(conn);
+
+        assertEquals(20_000, fetch(stub.url("/file.bin")));
+        assertEquals(1, stub.connections());
+    }
+
+    public void testParallelRequestsOpenAConnectionPerThread() throws Exception {
+        int threads = 4;
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 25; i++) {
+                        fetch(stub.url("/file.bin"));
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(100, stub.requests("/file.bin"));
+        assertTrue("connections: " + stub.connections(), stub.connections() <= threads);
+    }
+
+    private static long fetch(String url) throws IOException {
+        HttpURLConnection conn = NetworkUtils.createConnection(url, "GET");
+        assertEquals(200, conn.getResponseCode());
+        long total = 0;
+        try (InputStream in = conn.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                total += bytesRead;
+            }
+        }
+        return total;
+    }
+}